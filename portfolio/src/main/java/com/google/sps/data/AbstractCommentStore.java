@@ -0,0 +1,73 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.sps.data;
+
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/** Listener bookkeeping and the cursor format shared by the comment stores. */
+abstract class AbstractCommentStore implements CommentStore {
+  /** The order in which comments are listed: newest first, then by ascending id like Datastore. */
+  static final Comparator<Comment> NEWEST_FIRST =
+      Comparator.comparing(Comment::getPublishTime).reversed().thenComparingLong(Comment::getId);
+
+  // Cursors pointing after a given comment look like "~<publish millis>.<id>".
+  private static final String KEYSET_CURSOR_PREFIX = "~";
+
+  private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+  @Override
+  public void addListener(Listener listener) {
+    listeners.add(listener);
+  }
+
+  protected void notifyAdded(List<Comment> comments, long version) {
+    for (Listener listener : listeners) {
+      listener.onAdded(comments, version);
+    }
+  }
+
+  protected void notifyDeleted(Collection<Long> ids, long version) {
+    for (Listener listener : listeners) {
+      listener.onDeleted(ids, version);
+    }
+  }
+
+  /** Returns the cursor of the page that starts right after the given comment. */
+  static String cursorAfter(Comment comment) {
+    return KEYSET_CURSOR_PREFIX + comment.getPublishTime().getTime() + "." + comment.getId();
+  }
+
+  static boolean isKeysetCursor(String cursor) {
+    return cursor.startsWith(KEYSET_CURSOR_PREFIX);
+  }
+
+  /**
+   * Returns a comment standing for the position named by a cursor from {@link #cursorAfter}: the
+   * page starts with the first comment after it in {@link #NEWEST_FIRST} order.
+   *
+   * @throws IllegalArgumentException If the cursor is not valid.
+   */
+  static Comment parseKeysetCursor(String cursor) {
+    try {
+      String[] parts = cursor.substring(KEYSET_CURSOR_PREFIX.length()).split("\\.", 2);
+      return new Comment(null, null, Long.parseLong(parts[1]), new Date(Long.parseLong(parts[0])));
+    } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+      throw new IllegalArgumentException("Invalid cursor", e);
+    }
+  }
+}
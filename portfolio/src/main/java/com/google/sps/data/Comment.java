@@ -14,18 +14,143 @@
 
 package com.google.sps.data;
 
+import static com.google.sps.data.Constants.ENTITY_NAME;
+
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.Text;
 import java.util.Date;
+import org.jsoup.Jsoup;
+import org.jsoup.safety.Whitelist;
 
 public final class Comment {
   private final String authorEmail;
   private final String commentText;
+  // The text as safe HTML, and as plain text for search, both derived once when it is written. The
+  // plain text is only used on the server, so it is left out of the JSON sent to clients.
+  private final String commentHtml;
+  private final transient String plainText;
   private final long id;
   private final Date publishTime;
 
+  /**
+   * Creates a comment from the text typed by its author, which may contain basic HTML formatting.
+   * Anything but that formatting is removed from the HTML form of the text here, so that it never
+   * needs to be sanitized when the comment is read.
+   */
   public Comment(String authorEmail, String commentText, long id, Date publishTime) {
     this.authorEmail = authorEmail;
     this.commentText = commentText;
     this.id = id;
     this.publishTime = publishTime;
+
+    if (commentText == null) {
+      this.commentHtml = null;
+      this.plainText = null;
+    } else {
+      // Line breaks typed in the form are kept, as they were when the text was shown as is.
+      this.commentHtml = Jsoup.clean(commentText.replace("\n", "<br>"), Whitelist.basic());
+      this.plainText = Jsoup.parse(commentHtml).text();
+    }
+  }
+
+  private Comment(
+      String authorEmail,
+      String commentText,
+      String commentHtml,
+      String plainText,
+      long id,
+      Date publishTime) {
+    this.authorEmail = authorEmail;
+    this.commentText = commentText;
+    this.commentHtml = commentHtml;
+    this.plainText = plainText;
+    this.id = id;
+    this.publishTime = publishTime;
+  }
+
+  /** Creates the comment stored in the given Datastore entity. */
+  public static Comment fromEntity(Entity entity) {
+    String authorEmail = (String) entity.getProperty("author-email");
+    String commentText = (String) entity.getProperty("text");
+    long id = entity.getKey().getId();
+    Date publishTime = (Date) entity.getProperty("publish-time");
+
+    if (!entity.hasProperty("html")) {
+      // Written before comments were sanitized, and not yet rewritten by
+      // DatastoreCommentStore#sanitizeLegacyComments.
+      return new Comment(authorEmail, commentText, id, publishTime);
+    }
+
+    String commentHtml = getText(entity, "html");
+    String plainText = getText(entity, "plain-text");
+    return new Comment(authorEmail, commentText, commentHtml, plainText, id, publishTime);
+  }
+
+  /** Returns the value of a text property, or null if it has none. */
+  private static String getText(Entity entity, String property) {
+    Text text = (Text) entity.getProperty(property);
+    return text == null ? null : text.getValue();
+  }
+
+  /** Creates the same comment with the given id, without sanitizing it again. */
+  public Comment withId(long id) {
+    return new Comment(authorEmail, commentText, commentHtml, plainText, id, publishTime);
+  }
+
+  /**
+   * Creates a comment whose text was already sanitized, such as one read back from storage.
+   *
+   * @param commentHtml The text as sanitized by {@link #Comment(String, String, long, Date)}.
+   * @param plainText The text without any formatting.
+   */
+  static Comment fromStored(
+      String authorEmail,
+      String commentText,
+      String commentHtml,
+      String plainText,
+      long id,
+      Date publishTime) {
+    return new Comment(authorEmail, commentText, commentHtml, plainText, id, publishTime);
+  }
+
+  /** Creates the Datastore entity of this comment as a new one, whose id is assigned when put. */
+  public Entity toNewEntity() {
+    Entity commentEntity = new Entity(ENTITY_NAME);
+    commentEntity.setProperty("author-email", authorEmail);
+    commentEntity.setProperty("text", commentText);
+    commentEntity.setProperty("publish-time", publishTime);
+    setSanitizedText(commentEntity);
+
+    return commentEntity;
+  }
+
+  /** Stores the sanitized forms of the text of this comment in the given entity. */
+  void setSanitizedText(Entity commentEntity) {
+    commentEntity.setUnindexedProperty("html", new Text(commentHtml));
+    commentEntity.setUnindexedProperty("plain-text", new Text(plainText));
+  }
+
+  public String getAuthorEmail() {
+    return authorEmail;
+  }
+
+  public String getCommentText() {
+    return commentText;
+  }
+
+  public String getCommentHtml() {
+    return commentHtml;
+  }
+
+  public String getPlainText() {
+    return plainText;
+  }
+
+  public long getId() {
+    return id;
+  }
+
+  public Date getPublishTime() {
+    return publishTime;
   }
 }
@@ -0,0 +1,253 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.sps.data;
+
+import static com.google.sps.data.Constants.COUNTER_ENTITY_NAME;
+import static com.google.sps.data.Constants.ENTITY_NAME;
+import static com.google.sps.data.Constants.MAX_BATCH_SIZE;
+
+import com.google.appengine.api.datastore.AsyncDatastoreService;
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.datastore.Transaction;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.ConcurrentModificationException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Counts of the comments, overall and by author, kept in counter entities that are children of the
+ * {@link CommentsVersion}. Every comment write already bumps the version in its transaction, so the
+ * writes are serialized on that entity group whatever the counters do; sharding them across groups
+ * of their own would not let more writes through, and would only take up groups of the cross-group
+ * transactions that write the comments.
+ *
+ * <p>Counts are changed in the transaction that writes the comments whenever it fits in one, so
+ * they never disagree with the comments other instances see. The comments written before the counts
+ * were kept are counted by {@link #recount}.
+ */
+final class CommentCounters {
+  // How many times a recount is tried again when the comments change while it reads them.
+  private static final int MAX_RECOUNT_ATTEMPTS = 5;
+  // The most counters written per transaction, leaving room for the version in a commit.
+  private static final int MAX_COUNTERS_PER_TRANSACTION = MAX_BATCH_SIZE - 1;
+
+  private CommentCounters() {}
+
+  /** Returns the count overall and, if the email is not null, of that author. */
+  static CommentStats get(DatastoreService datastore, String authorEmail) {
+    List<Key> keys = new ArrayList<>();
+    keys.add(totalKey());
+    if (authorEmail != null) {
+      keys.add(authorKey(authorEmail));
+    }
+    Map<Key, Entity> counters = datastore.get(keys);
+
+    long total = countOf(counters.get(totalKey()));
+    return new CommentStats(
+        total,
+        authorEmail,
+        authorEmail == null ? null : countOf(counters.get(authorKey(authorEmail))));
+  }
+
+  /**
+   * Returns how much adding or removing the given comments changes the count of each author.
+   *
+   * @param sign 1 for comments added, -1 for comments removed.
+   */
+  static Map<String, Long> countByAuthor(Collection<Comment> comments, long sign) {
+    Map<String, Long> deltas = new HashMap<>();
+    for (Comment comment : comments) {
+      deltas.merge(authorOf(comment.getAuthorEmail()), sign, Long::sum);
+    }
+    return deltas;
+  }
+
+  /** Returns the name the counts of an author are kept under. */
+  static String authorOf(String authorEmail) {
+    return authorEmail == null ? "" : authorEmail;
+  }
+
+  /**
+   * Changes the counts as part of the given transaction.
+   *
+   * @param deltas How much to add to the count of each author, by email.
+   */
+  static void add(DatastoreService datastore, Transaction transaction, Map<String, Long> deltas) {
+    Map<Key, Long> counterDeltas = toCounterDeltas(deltas);
+    Map<Key, Entity> counters = datastore.get(transaction, counterDeltas.keySet());
+    datastore.put(transaction, apply(counters, counterDeltas));
+  }
+
+  /**
+   * Changes the counts as part of the given transaction, through the asynchronous API.
+   *
+   * @param deltas How much to add to the count of each author, by email.
+   */
+  static void add(
+      AsyncDatastoreService datastore, Transaction transaction, Map<String, Long> deltas)
+      throws ExecutionException, InterruptedException {
+    Map<Key, Long> counterDeltas = toCounterDeltas(deltas);
+    Map<Key, Entity> counters = datastore.get(transaction, counterDeltas.keySet()).get();
+    datastore.put(transaction, apply(counters, counterDeltas)).get();
+  }
+
+  /**
+   * Changes the counts in transactions of their own, for writes too large to share a transaction
+   * with them. Each transaction commits on its own, so a failure may leave part of the change
+   * applied.
+   *
+   * @param deltas How much to add to the count of each author, by email.
+   */
+  static void add(DatastoreService datastore, Map<String, Long> deltas)
+      throws InterruptedException {
+    List<Map.Entry<Key, Long>> counterDeltas = new ArrayList<>(toCounterDeltas(deltas).entrySet());
+    for (int start = 0; start < counterDeltas.size(); start += MAX_COUNTERS_PER_TRANSACTION) {
+      Map<Key, Long> chunk = new HashMap<>();
+      for (Map.Entry<Key, Long> entry :
+          counterDeltas.subList(
+              start, Math.min(start + MAX_COUNTERS_PER_TRANSACTION, counterDeltas.size()))) {
+        chunk.put(entry.getKey(), entry.getValue());
+      }
+
+      CommentsVersion.runInTransaction(
+          datastore,
+          transaction -> {
+            Map<Key, Entity> counters = datastore.get(transaction, chunk.keySet());
+            return datastore.put(transaction, apply(counters, chunk));
+          });
+    }
+  }
+
+  /**
+   * Counts every comment and overwrites the counters with the result, so that the counts include
+   * the comments written before they were kept. The counters are written in transactions that read
+   * the version and commit only if it is still the one the comments were counted at, so a recount
+   * that is repeated, or that runs alongside another, never counts a comment twice. The count is
+   * taken again if the version changes meanwhile, and given up after {@code MAX_RECOUNT_ATTEMPTS}.
+   *
+   * @throws ConcurrentModificationException If the comments kept changing during every attempt.
+   */
+  static void recount(DatastoreService datastore) throws InterruptedException {
+    for (int attempt = 0; attempt < MAX_RECOUNT_ATTEMPTS; attempt++) {
+      long version = CommentsVersion.get(datastore);
+
+      // Authors whose comments are all gone still have a counter to bring back to zero. The query
+      // has an ancestor, so it sees every counter.
+      Map<Key, Long> counts = new HashMap<>();
+      counts.put(totalKey(), 0L);
+      Query counterQuery =
+          new Query(COUNTER_ENTITY_NAME).setAncestor(CommentsVersion.KEY).setKeysOnly();
+      for (Entity counter : datastore.prepare(counterQuery).asIterable()) {
+        counts.put(counter.getKey(), 0L);
+      }
+      Query commentQuery = new Query(ENTITY_NAME);
+      for (Entity comment :
+          datastore
+              .prepare(commentQuery)
+              .asIterable(FetchOptions.Builder.withChunkSize(MAX_BATCH_SIZE))) {
+        counts.merge(
+            authorKey(authorOf((String) comment.getProperty("author-email"))), 1L, Long::sum);
+        counts.merge(totalKey(), 1L, Long::sum);
+      }
+
+      if (set(datastore, version, counts)) {
+        return;
+      }
+    }
+    throw new ConcurrentModificationException("The comments kept changing while counted");
+  }
+
+  /**
+   * Overwrites the counters with the given counts, in transactions that each commit only if the
+   * comments are still at the given version.
+   *
+   * @return Whether every counter was written before the version changed.
+   */
+  private static boolean set(DatastoreService datastore, long version, Map<Key, Long> counts)
+      throws InterruptedException {
+    List<Entity> counters = new ArrayList<>();
+    for (Map.Entry<Key, Long> count : counts.entrySet()) {
+      Entity counter = new Entity(count.getKey());
+      counter.setUnindexedProperty("count", count.getValue());
+      counters.add(counter);
+    }
+
+    for (int start = 0; start < counters.size(); start += MAX_COUNTERS_PER_TRANSACTION) {
+      List<Entity> chunk =
+          counters.subList(start, Math.min(start + MAX_COUNTERS_PER_TRANSACTION, counters.size()));
+      boolean written =
+          CommentsVersion.runInTransaction(
+              datastore,
+              transaction -> {
+                if (CommentsVersion.get(datastore, transaction) != version) {
+                  return false;
+                }
+                datastore.put(transaction, chunk);
+                return true;
+              });
+      if (!written) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /** Returns how much to add to each counter: the author's and the total. */
+  private static Map<Key, Long> toCounterDeltas(Map<String, Long> deltas) {
+    Map<Key, Long> counterDeltas = new HashMap<>();
+    long total = 0;
+    for (Map.Entry<String, Long> delta : deltas.entrySet()) {
+      counterDeltas.put(authorKey(delta.getKey()), delta.getValue());
+      total += delta.getValue();
+    }
+    counterDeltas.put(totalKey(), total);
+    return counterDeltas;
+  }
+
+  /** Returns the counters with the deltas added, creating the ones that do not exist yet. */
+  private static List<Entity> apply(Map<Key, Entity> counters, Map<Key, Long> counterDeltas) {
+    List<Entity> updated = new ArrayList<>();
+    for (Map.Entry<Key, Long> delta : counterDeltas.entrySet()) {
+      Entity counter = counters.get(delta.getKey());
+      if (counter == null) {
+        counter = new Entity(delta.getKey());
+      }
+      counter.setUnindexedProperty("count", countOf(counter) + delta.getValue());
+      updated.add(counter);
+    }
+    return updated;
+  }
+
+  private static long countOf(Entity counter) {
+    return counter == null || !counter.hasProperty("count")
+        ? 0
+        : (Long) counter.getProperty("count");
+  }
+
+  private static Key totalKey() {
+    return KeyFactory.createKey(CommentsVersion.KEY, COUNTER_ENTITY_NAME, "total");
+  }
+
+  private static Key authorKey(String authorEmail) {
+    return KeyFactory.createKey(CommentsVersion.KEY, COUNTER_ENTITY_NAME, "author/" + authorEmail);
+  }
+}
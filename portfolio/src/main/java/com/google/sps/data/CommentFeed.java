@@ -0,0 +1,114 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import com.google.gson.Gson;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * In-process fan-out of comment changes to the clients of {@code /comments/stream}. Each change is
+ * turned into a server-sent event once, and the same frame is handed to every subscriber, so one
+ * write reaches any number of clients without querying the store. Only the changes made through
+ * this instance are pushed to its clients.
+ */
+public final class CommentFeed implements CommentStore.Listener {
+  // Larger changes, such as imports, tell the clients to reload the comments instead.
+  private static final int MAX_EVENTS_PER_CHANGE = 50;
+
+  private static final CommentFeed INSTANCE = new CommentFeed();
+
+  private final List<Subscriber> subscribers = new CopyOnWriteArrayList<>();
+  private final Gson gson = new Gson();
+
+  /** A connected client. */
+  public interface Subscriber {
+    /**
+     * Sends the server-sent event frames of one change to the client. Called from the thread of the
+     * request that made the change, so it must not block on the client: the frames should be
+     * queued, and a client that falls too far behind dropped.
+     */
+    void send(String frames);
+  }
+
+  private CommentFeed() {}
+
+  public static CommentFeed getInstance() {
+    return INSTANCE;
+  }
+
+  public void subscribe(Subscriber subscriber) {
+    subscribers.add(subscriber);
+  }
+
+  public void unsubscribe(Subscriber subscriber) {
+    subscribers.remove(subscriber);
+  }
+
+  /** Returns the number of clients connected to this instance. */
+  public int getSubscriberCount() {
+    return subscribers.size();
+  }
+
+  @Override
+  public void onAdded(List<Comment> comments, long version) {
+    if (subscribers.isEmpty()) {
+      return;
+    }
+    if (comments.size() > MAX_EVENTS_PER_CHANGE) {
+      publish(frame("reset", version, "reset"));
+      return;
+    }
+
+    StringBuilder frames = new StringBuilder();
+    for (Comment comment : comments) {
+      frames.append(frame("added", version, gson.toJson(comment)));
+    }
+    publish(frames.toString());
+  }
+
+  @Override
+  public void onDeleted(Collection<Long> ids, long version) {
+    if (subscribers.isEmpty()) {
+      return;
+    }
+    if (ids.size() > MAX_EVENTS_PER_CHANGE) {
+      publish(frame("reset", version, "reset"));
+      return;
+    }
+
+    StringBuilder frames = new StringBuilder();
+    for (long id : ids) {
+      frames.append(frame("deleted", version, Long.toString(id)));
+    }
+    publish(frames.toString());
+  }
+
+  /**
+   * Returns the frame of one server-sent event. The data must not be empty, or {@code EventSource}
+   * drops the event.
+   */
+  public static String frame(String event, long version, String data) {
+    // Gson escapes line breaks inside strings, so the data always fits on one line.
+    return "event: " + event + "\nid: " + version + "\ndata: " + data + "\n\n";
+  }
+
+  private void publish(String frames) {
+    for (Subscriber subscriber : subscribers) {
+      subscriber.send(frames);
+    }
+  }
+}
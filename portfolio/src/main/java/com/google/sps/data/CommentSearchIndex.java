@@ -0,0 +1,424 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+
+/**
+ * In-memory inverted index of the comment texts. Every token maps to a posting list of the ids of
+ * the comments that contain it, kept sorted in a primitive {@code long[]} next to the number of
+ * occurrences. Searches rank the comments with BM25.
+ *
+ * <p>The index is loaded from the {@link CommentStore} when the app starts, by {@code
+ * SearchIndexLoader}, and kept up to date by listening to the store. When the version of the store
+ * shows that the comments were changed in a way it was not told about, for example by another
+ * instance, one search catches up at most every {@code MIN_REBUILD_INTERVAL_MILLIS}: it indexes the
+ * newest comments of the store down to the newest one indexed, a page or two from the cache of
+ * recent comments. Only when the index then holds a different number of comments than the store,
+ * because some were deleted elsewhere, is it rebuilt from every comment. The new index is built
+ * without holding the lock, so the other searches keep using the old one meanwhile.
+ *
+ * <p>Posting lists are plain sorted arrays rather than delta-encoded ones, so that the changes the
+ * index is told about are applied in place with a binary search.
+ */
+public final class CommentSearchIndex implements CommentStore.Listener {
+  // The usual BM25 parameters: how quickly repeated terms saturate, and how much long comments
+  // are penalized.
+  private static final double K1 = 1.2;
+  private static final double B = 0.75;
+
+  private static final long MIN_REBUILD_INTERVAL_MILLIS = 10 * 1000;
+
+  // Comments written at the same time may be committed in another order than their publish times,
+  // so catching up also looks at the comments published this long before the newest one indexed.
+  private static final long CATCH_UP_OVERLAP_MILLIS = 60 * 1000;
+  private static final int CATCH_UP_PAGE_SIZE = 50;
+  // Past this many pages of missed comments, rebuilding costs about as much as catching up.
+  private static final int MAX_CATCH_UP_PAGES = 10;
+
+  private static final CommentSearchIndex INSTANCE = new CommentSearchIndex();
+
+  private final ReadWriteLock lock = new ReentrantReadWriteLock();
+  private final AtomicBoolean rebuilding = new AtomicBoolean();
+  private Index index = new Index();
+  // The changes made while a new index is being built, to apply to it before it is swapped in.
+  private List<Consumer<Index>> pending;
+
+  // The version the index matches, or -1 if it has not been loaded.
+  private volatile long version = -1;
+  private volatile long rebuiltMillis;
+
+  /** One page of search results. */
+  public static final class Results {
+    private final List<Comment> comments;
+    private final int total;
+
+    private Results(List<Comment> comments, int total) {
+      this.comments = comments;
+      this.total = total;
+    }
+
+    /** Returns the comments of the page, best match first. */
+    public List<Comment> getComments() {
+      return comments;
+    }
+
+    /** Returns the number of comments matching the query, on all pages. */
+    public int getTotal() {
+      return total;
+    }
+  }
+
+  /** The postings and the comments they point to. */
+  private static final class Index {
+    private final Map<String, Postings> postings = new HashMap<>();
+    private final Map<Long, IndexedComment> comments = new HashMap<>();
+    private long totalLength;
+    // The publish time of the newest comment indexed, which deletions leave as it is.
+    private long newestMillis = Long.MIN_VALUE;
+
+    private void index(Comment comment) {
+      unindex(comment.getId());
+      newestMillis = Math.max(newestMillis, comment.getPublishTime().getTime());
+
+      Map<String, Integer> termCounts = tokenize(comment.getPlainText());
+      int length = 0;
+      for (Map.Entry<String, Integer> term : termCounts.entrySet()) {
+        postings
+            .computeIfAbsent(term.getKey(), token -> new Postings())
+            .put(comment.getId(), term.getValue());
+        length += term.getValue();
+      }
+
+      comments.put(comment.getId(), new IndexedComment(comment, termCounts, length));
+      totalLength += length;
+    }
+
+    private void unindex(long id) {
+      IndexedComment indexed = comments.remove(id);
+      if (indexed == null) {
+        return;
+      }
+
+      for (String token : indexed.termCounts.keySet()) {
+        Postings tokenPostings = postings.get(token);
+        tokenPostings.remove(id);
+        if (tokenPostings.size == 0) {
+          postings.remove(token);
+        }
+      }
+      totalLength -= indexed.length;
+    }
+  }
+
+  private static final class IndexedComment {
+    private final Comment comment;
+    private final Map<String, Integer> termCounts;
+    private final int length;
+
+    private IndexedComment(Comment comment, Map<String, Integer> termCounts, int length) {
+      this.comment = comment;
+      this.termCounts = termCounts;
+      this.length = length;
+    }
+  }
+
+  /** The comments containing a token, sorted by id, with the occurrences of the token in each. */
+  private static final class Postings {
+    private long[] ids = new long[4];
+    private int[] counts = new int[4];
+    private int size;
+
+    private void put(long id, int count) {
+      int index = Arrays.binarySearch(ids, 0, size, id);
+      if (index >= 0) {
+        counts[index] = count;
+        return;
+      }
+
+      index = -index - 1;
+      if (size == ids.length) {
+        ids = Arrays.copyOf(ids, size * 2);
+        counts = Arrays.copyOf(counts, size * 2);
+      }
+      System.arraycopy(ids, index, ids, index + 1, size - index);
+      System.arraycopy(counts, index, counts, index + 1, size - index);
+      ids[index] = id;
+      counts[index] = count;
+      size++;
+    }
+
+    private void remove(long id) {
+      int index = Arrays.binarySearch(ids, 0, size, id);
+      if (index < 0) {
+        return;
+      }
+
+      System.arraycopy(ids, index + 1, ids, index, size - index - 1);
+      System.arraycopy(counts, index + 1, counts, index, size - index - 1);
+      size--;
+    }
+  }
+
+  private CommentSearchIndex() {}
+
+  public static CommentSearchIndex getInstance() {
+    return INSTANCE;
+  }
+
+  /**
+   * Returns a page of the comments matching any token of the query, best match first.
+   *
+   * @param offset The number of results to skip.
+   * @param limit The maximum number of results to return.
+   */
+  public Results search(CommentStore store, String query, int offset, int limit) {
+    refreshIfStale(store);
+
+    lock.readLock().lock();
+    try {
+      Map<String, Postings> postings = index.postings;
+      Map<Long, IndexedComment> comments = index.comments;
+      Map<Long, Double> scores = new HashMap<>();
+      double averageLength = comments.isEmpty() ? 0 : (double) index.totalLength / comments.size();
+      for (String token : tokenize(query).keySet()) {
+        Postings tokenPostings = postings.get(token);
+        if (tokenPostings == null) {
+          continue;
+        }
+
+        double idf =
+            Math.log(1 + (comments.size() - tokenPostings.size + 0.5) / (tokenPostings.size + 0.5));
+        for (int i = 0; i < tokenPostings.size; i++) {
+          long id = tokenPostings.ids[i];
+          int count = tokenPostings.counts[i];
+          double normalizedLength = comments.get(id).length / averageLength;
+          double score = idf * count * (K1 + 1) / (count + K1 * (1 - B + B * normalizedLength));
+          scores.merge(id, score, Double::sum);
+        }
+      }
+
+      List<Map.Entry<Long, Double>> ranked = new ArrayList<>(scores.entrySet());
+      // Equal scores are ranked newest first, like the comments list.
+      ranked.sort(
+          (first, second) -> {
+            int byScore = Double.compare(second.getValue(), first.getValue());
+            if (byScore != 0) {
+              return byScore;
+            }
+            return comments
+                .get(second.getKey())
+                .comment
+                .getPublishTime()
+                .compareTo(comments.get(first.getKey()).comment.getPublishTime());
+          });
+
+      List<Comment> page = new ArrayList<>();
+      for (int i = offset; i < ranked.size() && page.size() < limit; i++) {
+        page.add(comments.get(ranked.get(i).getKey()).comment);
+      }
+      return new Results(page, ranked.size());
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  @Override
+  public void onAdded(List<Comment> added, long version) {
+    lock.writeLock().lock();
+    try {
+      for (Comment comment : added) {
+        index.index(comment);
+      }
+      if (pending != null) {
+        pending.add(loading -> added.forEach(loading::index));
+      }
+      // After a missed change the version is left behind, so that a search rebuilds the index.
+      if (this.version == version - 1) {
+        this.version = version;
+      }
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  @Override
+  public void onDeleted(Collection<Long> ids, long version) {
+    lock.writeLock().lock();
+    try {
+      for (long id : ids) {
+        index.unindex(id);
+      }
+      if (pending != null) {
+        pending.add(loading -> ids.forEach(loading::unindex));
+      }
+      if (this.version == version - 1) {
+        this.version = version;
+      }
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /** Splits a text into lower-case words and numbers, with the number of times each appears. */
+  private static Map<String, Integer> tokenize(String text) {
+    Map<String, Integer> tokens = new LinkedHashMap<>();
+    if (text == null) {
+      return tokens;
+    }
+
+    for (String token : text.toLowerCase(Locale.ROOT).split("[^\\p{L}\\p{N}]+")) {
+      if (!token.isEmpty()) {
+        tokens.merge(token, 1, Integer::sum);
+      }
+    }
+    return tokens;
+  }
+
+  /**
+   * Builds the index from all the comments of the store, and replaces the current one with it. The
+   * comments are read without holding the lock, so searches go on meanwhile.
+   */
+  public synchronized void load(CommentStore store) {
+    setPending(new ArrayList<>());
+    try {
+      // The version is read before the comments, so a concurrent write only causes another build.
+      long storedVersion = store.getVersion();
+      Index loaded = new Index();
+      store.forEach(loaded::index);
+
+      lock.writeLock().lock();
+      try {
+        // Changes that arrived while the comments were read may be missing from them; applying
+        // them again is harmless.
+        pending.forEach(change -> change.accept(loaded));
+        index = loaded;
+        version = storedVersion;
+        rebuiltMillis = System.currentTimeMillis();
+      } finally {
+        lock.writeLock().unlock();
+      }
+    } finally {
+      setPending(null);
+    }
+  }
+
+  private void setPending(List<Consumer<Index>> changes) {
+    lock.writeLock().lock();
+    try {
+      pending = changes;
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  private void refreshIfStale(CommentStore store) {
+    long storedVersion = store.getVersion();
+    if (version == storedVersion) {
+      return;
+    }
+    // Once loaded, a stale index is still served while one search rebuilds it, and not more often
+    // than every MIN_REBUILD_INTERVAL_MILLIS however busy the other instances are.
+    if (version != -1 && System.currentTimeMillis() - rebuiltMillis < MIN_REBUILD_INTERVAL_MILLIS) {
+      return;
+    }
+    if (!rebuilding.compareAndSet(false, true)) {
+      return;
+    }
+
+    try {
+      if (!catchUp(store, storedVersion)) {
+        load(store);
+      }
+    } finally {
+      rebuilding.set(false);
+    }
+  }
+
+  /**
+   * Indexes the comments added since the newest one indexed, and moves the index on to the version
+   * read before them if it then holds as many comments as the store. Otherwise comments were
+   * deleted without the index being told, which only a rebuild finds.
+   *
+   * @param storedVersion The version of the store, read before the comments.
+   * @return Whether the index caught up with the store.
+   */
+  private boolean catchUp(CommentStore store, long storedVersion) {
+    if (version == -1) {
+      return false;
+    }
+
+    long sinceMillis;
+    lock.readLock().lock();
+    try {
+      sinceMillis = index.newestMillis - CATCH_UP_OVERLAP_MILLIS;
+    } finally {
+      lock.readLock().unlock();
+    }
+
+    List<Comment> added = new ArrayList<>();
+    String cursor = null;
+    boolean reached = false;
+    for (int page = 0; page < MAX_CATCH_UP_PAGES && !reached; page++) {
+      List<Comment> comments = new ArrayList<>();
+      cursor = store.list(CATCH_UP_PAGE_SIZE, cursor, comments::add);
+      for (Comment comment : comments) {
+        if (comment.getPublishTime().getTime() < sinceMillis) {
+          reached = true;
+          break;
+        }
+        added.add(comment);
+      }
+      reached |= cursor == null;
+    }
+    if (!reached) {
+      return false;
+    }
+    long total = store.getStats(null).getTotal();
+
+    lock.writeLock().lock();
+    try {
+      for (Comment comment : added) {
+        if (!index.comments.containsKey(comment.getId())) {
+          index.index(comment);
+        }
+      }
+      if (pending != null) {
+        pending.add(loading -> added.forEach(loading::index));
+      }
+      if (index.comments.size() != total) {
+        return false;
+      }
+      if (version < storedVersion) {
+        version = storedVersion;
+      }
+      rebuiltMillis = System.currentTimeMillis();
+      return true;
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+}
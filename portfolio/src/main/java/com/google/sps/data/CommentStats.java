@@ -0,0 +1,43 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.sps.data;
+
+/** The number of comments overall and, when asked for, by one author. */
+public final class CommentStats {
+  private final long total;
+  private final String authorEmail;
+  private final Long authorCount;
+
+  /**
+   * @param authorEmail The author counted, or null if only the total was asked for.
+   * @param authorCount The number of comments by the author, or null with no author.
+   */
+  public CommentStats(long total, String authorEmail, Long authorCount) {
+    this.total = total;
+    this.authorEmail = authorEmail;
+    this.authorCount = authorCount;
+  }
+
+  public long getTotal() {
+    return total;
+  }
+
+  public String getAuthorEmail() {
+    return authorEmail;
+  }
+
+  public Long getAuthorCount() {
+    return authorCount;
+  }
+}
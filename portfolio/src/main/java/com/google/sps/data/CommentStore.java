@@ -0,0 +1,77 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.sps.data;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Where the comments are kept. The servlets only talk to this interface, so the comments can live
+ * in Datastore, in memory or in a local log file, as configured in {@link CommentStoreFactory}.
+ *
+ * <p>Comments are listed newest first, then by ascending id. Every change to the comments bumps a
+ * version, which lets readers tell whether what they derived from the comments is still current.
+ */
+public interface CommentStore {
+  /** Told about every change made through the store, after it is committed. */
+  interface Listener {
+    /** Called with the comments added, with their ids, and the version committed with them. */
+    void onAdded(List<Comment> comments, long version);
+
+    /** Called with the ids of the comments deleted and the version committed with them. */
+    void onDeleted(Collection<Long> ids, long version);
+  }
+
+  void addListener(Listener listener);
+
+  /** Returns the version of the comments, which changes whenever a comment is added or deleted. */
+  long getVersion();
+
+  /**
+   * Passes one page of the comments to the consumer, newest first.
+   *
+   * @param limit The maximum number of comments in the page.
+   * @param cursor The cursor returned with the previous page, or null for the first page.
+   * @return The cursor of the next page, or null if there are no more comments.
+   * @throws IllegalArgumentException If the cursor is not valid, before any comment is passed.
+   */
+  String list(int limit, String cursor, Consumer<Comment> consumer);
+
+  /**
+   * Returns the number of comments overall and, if the email is not null, by that author, without
+   * going through the comments.
+   */
+  CommentStats getStats(String authorEmail);
+
+  /** Passes every comment to the consumer, in no particular order. */
+  void forEach(Consumer<Comment> consumer);
+
+  /**
+   * Adds new comments. Their ids are ignored and new ones are assigned.
+   *
+   * @return The comments added, with their ids.
+   * @throws IOException If the comments could not be stored.
+   */
+  List<Comment> add(List<Comment> comments) throws IOException;
+
+  /**
+   * Deletes comments. Unknown ids are ignored.
+   *
+   * @return The number of comments that existed and were deleted.
+   * @throws IOException If the deletion could not be stored.
+   */
+  int delete(Collection<Long> ids) throws IOException;
+}
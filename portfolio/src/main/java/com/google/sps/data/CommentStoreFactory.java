@@ -0,0 +1,68 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.sps.data;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Paths;
+
+/**
+ * Creates the {@link CommentStore} the servlets use, chosen by the {@code comments.store} system
+ * property:
+ *
+ * <ul>
+ *   <li>{@code datastore} (the default): Datastore, batching new comments that arrive within {@code
+ *       comments.batchWindowMillis} (5 by default).
+ *   <li>{@code memory}: in memory only, for benchmarks.
+ *   <li>{@code log}: in memory, backed by the append-only log at {@code comments.log}.
+ * </ul>
+ *
+ * The search index and the live feed are registered as listeners of the store.
+ */
+public final class CommentStoreFactory {
+  private static final long DEFAULT_BATCH_WINDOW_MILLIS = 5;
+  private static final String DEFAULT_LOG_PATH = "comments.log";
+
+  private static CommentStore store;
+
+  private CommentStoreFactory() {}
+
+  public static synchronized CommentStore getCommentStore() {
+    if (store == null) {
+      store = createCommentStore(System.getProperty("comments.store", "datastore"));
+      store.addListener(CommentSearchIndex.getInstance());
+      store.addListener(CommentFeed.getInstance());
+    }
+    return store;
+  }
+
+  private static CommentStore createCommentStore(String type) {
+    switch (type) {
+      case "datastore":
+        return new DatastoreCommentStore(
+            Long.getLong("comments.batchWindowMillis", DEFAULT_BATCH_WINDOW_MILLIS));
+      case "memory":
+        return new InMemoryCommentStore();
+      case "log":
+        try {
+          return new LogCommentStore(
+              Paths.get(System.getProperty("comments.log", DEFAULT_LOG_PATH)));
+        } catch (IOException e) {
+          throw new UncheckedIOException("Could not open the comments log", e);
+        }
+      default:
+        throw new IllegalStateException("Unknown comments.store: " + type);
+    }
+  }
+}
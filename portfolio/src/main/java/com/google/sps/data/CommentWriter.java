@@ -0,0 +1,217 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import com.google.appengine.api.datastore.AsyncDatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.Transaction;
+import com.google.appengine.api.datastore.TransactionOptions;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.ConcurrentModificationException;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiConsumer;
+
+/**
+ * Writes new comments through the {@link AsyncDatastoreService}, grouping the comments that arrive
+ * within a few milliseconds of each other into one transaction with a single {@link
+ * CommentsVersion} bump, {@link CommentsSnapshot} update and {@link CommentCounters} change.
+ *
+ * <p>There is no background thread: the first request to find no batch in progress becomes the
+ * leader. It waits for the batch window, writes every comment queued meanwhile, and completes the
+ * other requests, which only wait for their comment to be durable. A window of 0 writes every
+ * comment on its own.
+ */
+final class CommentWriter {
+  // A cross-group transaction spans at most 25 entity groups, two of which are the version, with
+  // the
+  // counters under it, and the snapshot; the rest hold one comment each.
+  private static final int MAX_ENTITY_GROUPS = 23;
+
+  private final long batchWindowMillis;
+  private final BiConsumer<List<Comment>, Long> onCommit;
+  private final Queue<PendingWrite> pending = new ConcurrentLinkedQueue<>();
+  private final AtomicBoolean leading = new AtomicBoolean();
+
+  /** A comment waiting to be written, with the future completed once it is durable. */
+  private static final class PendingWrite {
+    private final Entity entity;
+    private final CompletableFuture<Comment> written = new CompletableFuture<>();
+
+    private PendingWrite(Entity entity) {
+      this.entity = entity;
+    }
+  }
+
+  /**
+   * @param batchWindowMillis How long the leader of a batch waits for other comments.
+   * @param onCommit Called with the comments of each batch and their version once committed.
+   */
+  CommentWriter(long batchWindowMillis, BiConsumer<List<Comment>, Long> onCommit) {
+    this.batchWindowMillis = batchWindowMillis;
+    this.onCommit = onCommit;
+  }
+
+  /**
+   * Writes a new comment and returns once it is committed.
+   *
+   * @param commentEntity The entity of the comment, as built by {@link Comment#toNewEntity}.
+   * @return The comment written, with its id.
+   * @throws IOException If the comment could not be written.
+   */
+  Comment write(Entity commentEntity) throws IOException {
+    PendingWrite write = new PendingWrite(commentEntity);
+    pending.add(write);
+
+    try {
+      while (!write.written.isDone()) {
+        if (leading.compareAndSet(false, true)) {
+          try {
+            if (!write.written.isDone()) {
+              lead();
+            }
+          } finally {
+            leading.set(false);
+          }
+        } else {
+          // Another request is writing a batch; if it was drained before this comment was queued,
+          // this request takes the lead once that batch is done.
+          try {
+            write.written.get(Math.max(batchWindowMillis, 1), TimeUnit.MILLISECONDS);
+          } catch (TimeoutException e) {
+            continue;
+          }
+        }
+      }
+      return write.written.get();
+    } catch (InterruptedException e) {
+      pending.remove(write);
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while writing the comment", e);
+    } catch (ExecutionException e) {
+      throw new IOException("Could not write the comment", e.getCause());
+    }
+  }
+
+  /** Waits for the batch window, then writes everything queued in batches. */
+  private void lead() throws InterruptedException {
+    if (batchWindowMillis > 0) {
+      Thread.sleep(batchWindowMillis);
+    }
+
+    List<PendingWrite> batch = new ArrayList<>();
+    PendingWrite write;
+    while ((write = pending.poll()) != null) {
+      if (batch.size() == MAX_ENTITY_GROUPS) {
+        writeBatch(batch);
+        batch = new ArrayList<>();
+      }
+      batch.add(write);
+    }
+    if (!batch.isEmpty()) {
+      writeBatch(batch);
+    }
+  }
+
+  private void writeBatch(List<PendingWrite> batch) {
+    AsyncDatastoreService datastore = DatastoreServiceFactory.getAsyncDatastoreService();
+    List<Entity> entities = new ArrayList<>();
+    for (PendingWrite write : batch) {
+      entities.add(write.entity);
+    }
+
+    try {
+      long version;
+      for (int attempt = 1; ; attempt++) {
+        try {
+          version = commit(datastore, entities);
+          break;
+        } catch (ConcurrentModificationException e) {
+          // Another write committed the version first; the same entities are put again.
+          if (attempt == CommentsVersion.MAX_ATTEMPTS) {
+            throw e;
+          }
+        }
+        CommentsVersion.backoff(attempt);
+      }
+
+      List<Comment> comments = new ArrayList<>();
+      for (Entity entity : entities) {
+        comments.add(Comment.fromEntity(entity));
+      }
+      try {
+        onCommit.accept(comments, version);
+      } finally {
+        // The comments are durable whatever happens to the listeners.
+        for (int i = 0; i < batch.size(); i++) {
+          batch.get(i).written.complete(comments.get(i));
+        }
+      }
+    } catch (Exception e) {
+      if (e instanceof InterruptedException) {
+        Thread.currentThread().interrupt();
+      }
+      for (PendingWrite write : batch) {
+        write.written.completeExceptionally(e instanceof ExecutionException ? e.getCause() : e);
+      }
+    }
+  }
+
+  /**
+   * Writes the comments in one transaction with the version, the snapshot and the counts.
+   *
+   * @return The version of the comments once written.
+   * @throws ConcurrentModificationException If another transaction changed the same entities first.
+   */
+  private static long commit(AsyncDatastoreService datastore, List<Entity> entities)
+      throws ExecutionException, InterruptedException {
+    Transaction transaction = null;
+    try {
+      transaction = datastore.beginTransaction(TransactionOptions.Builder.withXG(true)).get();
+      // The comments are put while the version is read and bumped.
+      Future<?> put = datastore.put(transaction, entities);
+      long version = CommentsVersion.increment(datastore, transaction);
+      put.get();
+
+      // The ids of the comments are only known once they are put.
+      List<Comment> comments = new ArrayList<>();
+      for (Entity entity : entities) {
+        comments.add(Comment.fromEntity(entity));
+      }
+      CommentsSnapshot.add(datastore, transaction, comments, version);
+      CommentCounters.add(datastore, transaction, CommentCounters.countByAuthor(comments, 1));
+      transaction.commitAsync().get();
+      return version;
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof ConcurrentModificationException) {
+        throw (ConcurrentModificationException) e.getCause();
+      }
+      throw e;
+    } finally {
+      if (transaction != null && transaction.isActive()) {
+        transaction.rollbackAsync();
+      }
+    }
+  }
+}
@@ -0,0 +1,234 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import static com.google.sps.data.Constants.SNAPSHOT_ENTITY_NAME;
+
+import com.google.appengine.api.datastore.AsyncDatastoreService;
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.Text;
+import com.google.appengine.api.datastore.Transaction;
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.ConcurrentModificationException;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * The newest comments, serialized to JSON in a single Datastore entity so that the first page can
+ * be read with one key lookup instead of a sorted query.
+ *
+ * <p>The snapshot carries the {@link CommentsVersion} it matches. Single writes update it in the
+ * transaction that bumps the version; bulk writes leave it behind, and it is then rebuilt from a
+ * query by the next instance that reads it.
+ */
+final class CommentsSnapshot {
+  static final int SIZE = 40;
+
+  private static final Key KEY = KeyFactory.createKey(SNAPSHOT_ENTITY_NAME, "newest");
+  // Leaves room for the other properties below the 1 MB limit of an entity.
+  private static final int MAX_JSON_BYTES = 900_000;
+  private static final Gson GSON = new Gson();
+  private static final Type ENTRIES_TYPE = new TypeToken<List<Entry>>() {}.getType();
+
+  private final List<Comment> comments;
+  private final boolean complete;
+  private final long version;
+
+  /** A comment as stored in the snapshot, with its publish time in milliseconds. */
+  private static final class Entry {
+    private long id;
+    private String authorEmail;
+    private String commentText;
+    private String commentHtml;
+    private String plainText;
+    private long publishMillis;
+
+    private static Entry of(Comment comment) {
+      Entry entry = new Entry();
+      entry.id = comment.getId();
+      entry.authorEmail = comment.getAuthorEmail();
+      entry.commentText = comment.getCommentText();
+      entry.commentHtml = comment.getCommentHtml();
+      entry.plainText = comment.getPlainText();
+      entry.publishMillis = comment.getPublishTime().getTime();
+      return entry;
+    }
+
+    private Comment toComment() {
+      return Comment.fromStored(
+          authorEmail, commentText, commentHtml, plainText, id, new Date(publishMillis));
+    }
+  }
+
+  private CommentsSnapshot(List<Comment> comments, boolean complete, long version) {
+    this.comments = comments;
+    this.complete = complete;
+    this.version = version;
+  }
+
+  /** Returns the comments of the snapshot, newest first. */
+  List<Comment> getComments() {
+    return comments;
+  }
+
+  /** Returns whether the snapshot holds every comment, rather than only the newest ones. */
+  boolean isComplete() {
+    return complete;
+  }
+
+  /** Returns the comments version the snapshot matches. */
+  long getVersion() {
+    return version;
+  }
+
+  /** Reads the snapshot, or returns null if there is none yet. */
+  static CommentsSnapshot get(DatastoreService datastore) {
+    try {
+      return fromEntity(datastore.get(KEY));
+    } catch (EntityNotFoundException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Adds new comments to the snapshot as part of the transaction that writes them. A snapshot that
+   * was already behind is left as it is.
+   *
+   * @param version The comments version the transaction bumps to.
+   */
+  static void add(
+      AsyncDatastoreService datastore,
+      Transaction transaction,
+      Collection<Comment> added,
+      long version)
+      throws ExecutionException, InterruptedException {
+    Entity entity;
+    try {
+      entity = datastore.get(transaction, KEY).get();
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof EntityNotFoundException) {
+        return;
+      }
+      throw e;
+    }
+
+    CommentsSnapshot current = fromEntity(entity);
+    if (current.version != version - 1) {
+      return;
+    }
+    List<Comment> comments = new ArrayList<>(current.comments);
+    comments.addAll(added);
+    datastore.put(transaction, toEntity(comments, current.complete, version)).get();
+  }
+
+  /**
+   * Removes a comment from the snapshot as part of the transaction that deletes it. A snapshot that
+   * was already behind is left as it is.
+   *
+   * @param version The comments version the transaction bumps to.
+   */
+  static void remove(DatastoreService datastore, Transaction transaction, long id, long version) {
+    CommentsSnapshot current;
+    try {
+      current = fromEntity(datastore.get(transaction, KEY));
+    } catch (EntityNotFoundException e) {
+      return;
+    }
+    if (current.version != version - 1) {
+      return;
+    }
+
+    List<Comment> comments = new ArrayList<>(current.comments);
+    comments.removeIf(comment -> comment.getId() == id);
+    datastore.put(transaction, toEntity(comments, current.complete, version));
+  }
+
+  /**
+   * Replaces the snapshot with comments queried from Datastore, unless the comments changed since
+   * the version was read.
+   *
+   * @param newest The newest comments, newest first.
+   * @param complete Whether these are all the comments.
+   * @param version The comments version read before the query.
+   */
+  static void rebuild(
+      DatastoreService datastore, List<Comment> newest, boolean complete, long version) {
+    Transaction transaction = datastore.beginTransaction();
+    try {
+      if (CommentsVersion.get(datastore, transaction) != version) {
+        return;
+      }
+      datastore.put(transaction, toEntity(newest, complete, version));
+      transaction.commit();
+    } catch (ConcurrentModificationException e) {
+      // A write got in first; the snapshot is rebuilt on a later read.
+    } finally {
+      if (transaction.isActive()) {
+        transaction.rollback();
+      }
+    }
+  }
+
+  /** Builds the entity of the snapshot, keeping the newest comments that fit. */
+  private static Entity toEntity(List<Comment> comments, boolean complete, long version) {
+    List<Comment> newest = new ArrayList<>(comments);
+    Collections.sort(newest, AbstractCommentStore.NEWEST_FIRST);
+
+    List<Entry> entries = new ArrayList<>();
+    for (Comment comment : newest) {
+      entries.add(Entry.of(comment));
+    }
+    if (entries.size() > SIZE) {
+      entries = new ArrayList<>(entries.subList(0, SIZE));
+      complete = false;
+    }
+
+    String json = GSON.toJson(entries, ENTRIES_TYPE);
+    while (json.getBytes(StandardCharsets.UTF_8).length > MAX_JSON_BYTES) {
+      // Unusually long comments; drop the oldest until the rest fits.
+      entries.remove(entries.size() - 1);
+      complete = false;
+      json = GSON.toJson(entries, ENTRIES_TYPE);
+    }
+
+    Entity entity = new Entity(KEY);
+    entity.setUnindexedProperty("comments", new Text(json));
+    entity.setUnindexedProperty("complete", complete);
+    entity.setUnindexedProperty("version", version);
+    return entity;
+  }
+
+  private static CommentsSnapshot fromEntity(Entity entity) {
+    List<Entry> entries =
+        GSON.fromJson(((Text) entity.getProperty("comments")).getValue(), ENTRIES_TYPE);
+    List<Comment> comments = new ArrayList<>();
+    for (Entry entry : entries) {
+      comments.add(entry.toComment());
+    }
+    return new CommentsSnapshot(
+        comments, (Boolean) entity.getProperty("complete"), (Long) entity.getProperty("version"));
+  }
+}
@@ -0,0 +1,161 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import static com.google.sps.data.Constants.VERSION_ENTITY_NAME;
+
+import com.google.appengine.api.datastore.AsyncDatastoreService;
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.Transaction;
+import java.util.ConcurrentModificationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Function;
+
+/**
+ * Version of the comment set, stored in a single Datastore entity. Every write to the comments
+ * bumps it in the same transaction, so any instance can tell whether what it cached is stale.
+ *
+ * <p>Comment writes therefore contend on this entity group; the {@link CommentCounters} share it
+ * rather than adding groups of their own.
+ */
+final class CommentsVersion {
+  /** How many times a write that loses the race for the version is tried before giving up. */
+  static final int MAX_ATTEMPTS = 5;
+
+  /** The key of the version, and the parent of the {@link CommentCounters}. */
+  static final Key KEY = KeyFactory.createKey(VERSION_ENTITY_NAME, "comments");
+
+  private static final long BASE_BACKOFF_MILLIS = 20;
+
+  private CommentsVersion() {}
+
+  /** Returns the current version, or 0 if the comments were never written. */
+  static long get(DatastoreService datastore) {
+    return get(datastore, null);
+  }
+
+  /**
+   * Returns the version as read by the given transaction, which then fails to commit if the version
+   * changes meanwhile.
+   */
+  static long get(DatastoreService datastore, Transaction transaction) {
+    try {
+      return (Long) datastore.get(transaction, KEY).getProperty("version");
+    } catch (EntityNotFoundException e) {
+      return 0;
+    }
+  }
+
+  /**
+   * Bumps the version as part of the given transaction.
+   *
+   * @return The new version, which becomes visible once the transaction commits.
+   */
+  static long increment(DatastoreService datastore, Transaction transaction) {
+    Entity entity;
+    try {
+      entity = datastore.get(transaction, KEY);
+    } catch (EntityNotFoundException e) {
+      entity = new Entity(KEY);
+      entity.setProperty("version", 0L);
+    }
+
+    long version = (Long) entity.getProperty("version") + 1;
+    entity.setUnindexedProperty("version", version);
+    datastore.put(transaction, entity);
+    return version;
+  }
+
+  /**
+   * Bumps the version as part of the given transaction, through the asynchronous API so that the
+   * caller's own writes can be in flight meanwhile.
+   *
+   * @return The new version, which becomes visible once the transaction commits.
+   */
+  static long increment(AsyncDatastoreService datastore, Transaction transaction)
+      throws ExecutionException, InterruptedException {
+    Entity entity;
+    try {
+      entity = datastore.get(transaction, KEY).get();
+    } catch (ExecutionException e) {
+      if (!(e.getCause() instanceof EntityNotFoundException)) {
+        throw e;
+      }
+      entity = new Entity(KEY);
+      entity.setProperty("version", 0L);
+    }
+
+    long version = (Long) entity.getProperty("version") + 1;
+    entity.setUnindexedProperty("version", version);
+    Future<Key> put = datastore.put(transaction, entity);
+    put.get();
+    return version;
+  }
+
+  /**
+   * Bumps the version in a transaction of its own, for writes too large to share a transaction with
+   * it. The writes must be done before the version is bumped, so that instances that see the new
+   * version also see them.
+   *
+   * @return The new version.
+   */
+  static long increment(DatastoreService datastore) throws InterruptedException {
+    return runInTransaction(datastore, transaction -> increment(datastore, transaction));
+  }
+
+  /**
+   * Runs the work in a transaction of its own and commits it. The transaction is tried again with
+   * {@link #backoff} when other writes to the version race it.
+   *
+   * @return What the work returned in the transaction that committed.
+   */
+  static <T> T runInTransaction(DatastoreService datastore, Function<Transaction, T> work)
+      throws InterruptedException {
+    for (int attempt = 1; ; attempt++) {
+      Transaction transaction = datastore.beginTransaction();
+      try {
+        T result = work.apply(transaction);
+        transaction.commit();
+        return result;
+      } catch (ConcurrentModificationException e) {
+        if (attempt == MAX_ATTEMPTS) {
+          throw e;
+        }
+      } finally {
+        if (transaction.isActive()) {
+          transaction.rollback();
+        }
+      }
+      backoff(attempt);
+    }
+  }
+
+  /**
+   * Sleeps before trying again a write whose transaction lost the race for the version: twice as
+   * long after every attempt, with jitter so that the writers that collided do not collide again.
+   *
+   * @param attempt The number of attempts made so far, starting at 1.
+   */
+  static void backoff(int attempt) throws InterruptedException {
+    long millis = BASE_BACKOFF_MILLIS << (attempt - 1);
+    Thread.sleep(millis + ThreadLocalRandom.current().nextLong(millis));
+  }
+}
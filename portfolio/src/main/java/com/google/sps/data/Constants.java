@@ -16,6 +16,15 @@ package com.google.sps.data;
 
 public final class Constants {
   public static final String ENTITY_NAME = "Comment";
+  public static final String VERSION_ENTITY_NAME = "CommentsVersion";
+  public static final String SNAPSHOT_ENTITY_NAME = "CommentsSnapshot";
+  public static final String COUNTER_ENTITY_NAME = "CommentCounter";
+  public static final String MIGRATION_ENTITY_NAME = "Migration";
+
+  // The most entities a single Datastore put or delete call accepts.
+  public static final int MAX_BATCH_SIZE = 500;
+  // The most entity groups a single cross-group transaction may touch.
+  public static final int MAX_TRANSACTION_GROUPS = 25;
 
   private Constants() {}
 }
@@ -0,0 +1,348 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.sps.data;
+
+import static com.google.sps.data.Constants.ENTITY_NAME;
+import static com.google.sps.data.Constants.MAX_BATCH_SIZE;
+import static com.google.sps.data.Constants.MAX_TRANSACTION_GROUPS;
+
+import com.google.appengine.api.datastore.Cursor;
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.datastore.Query.FilterOperator;
+import com.google.appengine.api.datastore.Query.FilterPredicate;
+import com.google.appengine.api.datastore.Query.SortDirection;
+import com.google.appengine.api.datastore.QueryResultIterator;
+import com.google.appengine.api.datastore.Transaction;
+import com.google.appengine.api.datastore.TransactionOptions;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.ConcurrentModificationException;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Comment store backed by Datastore, which is what the app uses on App Engine.
+ *
+ * <p>Every write bumps the {@link CommentsVersion}, in the same transaction when it fits in one,
+ * and single writes also update the {@link CommentsSnapshot} of the newest comments there. The
+ * first page of comments is served from a {@link RecentCommentsCache} when possible, which is
+ * loaded from the snapshot, and single new comments go through a {@link CommentWriter} that batches
+ * the ones arriving together.
+ *
+ * <p>Cursors are either Datastore cursors or, after a page served from the cache, point after the
+ * last comment of the page and are answered with a filtered query.
+ */
+public final class DatastoreCommentStore extends AbstractCommentStore {
+  // Entities fetched from Datastore per round trip while a page is listed.
+  private static final int CHUNK_SIZE = 25;
+
+  private final RecentCommentsCache cache = new RecentCommentsCache(RecentCommentsCache.CAPACITY);
+  private final CommentWriter writer;
+
+  /**
+   * @param batchWindowMillis How long a new comment may wait for others to be written with it, or 0
+   *     to write every comment on its own.
+   */
+  public DatastoreCommentStore(long batchWindowMillis) {
+    this.writer =
+        new CommentWriter(
+            batchWindowMillis,
+            (comments, version) -> {
+              cache.add(comments, version);
+              notifyAdded(comments, version);
+            });
+  }
+
+  @Override
+  public long getVersion() {
+    return cache.getVersion(getDatastore());
+  }
+
+  @Override
+  public String list(int limit, String cursor, Consumer<Comment> consumer) {
+    DatastoreService datastore = getDatastore();
+    FetchOptions fetchOptions = FetchOptions.Builder.withLimit(limit).chunkSize(CHUNK_SIZE);
+    Query query = newQuery();
+
+    if (cursor == null || cursor.isEmpty()) {
+      List<Comment> comments = cache.getNewest(datastore, limit);
+      if (comments != null) {
+        comments.forEach(consumer);
+        return comments.size() < limit ? null : cursorAfter(comments.get(comments.size() - 1));
+      }
+      return list(datastore, query, fetchOptions, null, consumer);
+    }
+
+    if (isKeysetCursor(cursor)) {
+      Comment after = parseKeysetCursor(cursor);
+      // Comments published in the same millisecond as the last one returned are ordered by id, so
+      // the ones up to its id were already on the previous page.
+      query.setFilter(
+          new FilterPredicate(
+              "publish-time", FilterOperator.LESS_THAN_OR_EQUAL, after.getPublishTime()));
+      return list(datastore, query, fetchOptions, after, consumer);
+    }
+
+    fetchOptions.startCursor(Cursor.fromWebSafeString(cursor));
+    return list(datastore, query, fetchOptions, null, consumer);
+  }
+
+  /**
+   * Runs one page of the query and returns the cursor of the next page. Comments that come before
+   * {@code after} are left out of the page, and the next page of such a keyset page is named by a
+   * keyset cursor too: a Datastore cursor is only valid for the filtered query that produced it.
+   */
+  private static String list(
+      DatastoreService datastore,
+      Query query,
+      FetchOptions fetchOptions,
+      Comment after,
+      Consumer<Comment> consumer) {
+    QueryResultIterator<Entity> entities =
+        datastore.prepare(query).asQueryResultIterator(fetchOptions);
+
+    int fetched = 0;
+    Comment last = null;
+    while (entities.hasNext()) {
+      Comment comment = Comment.fromEntity(entities.next());
+      fetched++;
+      last = comment;
+      if (after == null || NEWEST_FIRST.compare(comment, after) > 0) {
+        consumer.accept(comment);
+      }
+    }
+
+    // A short page means the query ran out of comments, so there is nothing left to fetch.
+    if (fetched < fetchOptions.getLimit()) {
+      return null;
+    }
+    if (after != null) {
+      return cursorAfter(last);
+    }
+    return entities.getCursor().toWebSafeString();
+  }
+
+  @Override
+  public CommentStats getStats(String authorEmail) {
+    return CommentCounters.get(getDatastore(), authorEmail);
+  }
+
+  @Override
+  public void forEach(Consumer<Comment> consumer) {
+    Query query = new Query(ENTITY_NAME);
+    for (Entity entity :
+        getDatastore().prepare(query).asIterable(FetchOptions.Builder.withChunkSize(500))) {
+      consumer.accept(Comment.fromEntity(entity));
+    }
+  }
+
+  @Override
+  public List<Comment> add(List<Comment> comments) throws IOException {
+    if (comments.isEmpty()) {
+      return Collections.emptyList();
+    }
+    if (comments.size() == 1) {
+      Comment comment = comments.get(0);
+      return Collections.singletonList(writer.write(comment.toNewEntity()));
+    }
+
+    DatastoreService datastore = getDatastore();
+    List<Entity> entities = new ArrayList<>();
+    for (Comment comment : comments) {
+      entities.add(comment.toNewEntity());
+    }
+    for (int start = 0; start < entities.size(); start += MAX_BATCH_SIZE) {
+      datastore.put(entities.subList(start, Math.min(start + MAX_BATCH_SIZE, entities.size())));
+    }
+
+    List<Comment> added = new ArrayList<>();
+    for (Entity entity : entities) {
+      added.add(Comment.fromEntity(entity));
+    }
+
+    // A batch spans too many entity groups to share a transaction with the version and the counts,
+    // so they are changed once everything is written.
+    long version = commitCounts(datastore, CommentCounters.countByAuthor(added, 1));
+    cache.invalidate();
+    notifyAdded(added, version);
+    return added;
+  }
+
+  @Override
+  public int delete(Collection<Long> ids) throws IOException {
+    if (ids.isEmpty()) {
+      return 0;
+    }
+
+    DatastoreService datastore = getDatastore();
+    List<Key> keys = new ArrayList<>();
+    for (long id : ids) {
+      keys.add(KeyFactory.createKey(ENTITY_NAME, id));
+    }
+
+    if (keys.size() == 1) {
+      long id = ids.iterator().next();
+      try {
+        for (int attempt = 1; ; attempt++) {
+          try {
+            return deleteOne(datastore, id);
+          } catch (ConcurrentModificationException e) {
+            // Another write committed the version first; the deletion is tried again.
+            if (attempt == CommentsVersion.MAX_ATTEMPTS) {
+              throw new IOException("Could not delete the comment", e);
+            }
+          }
+          CommentsVersion.backoff(attempt);
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted while deleting the comment");
+      }
+    }
+
+    // The comments are read first to learn whose counts go down.
+    List<Comment> deleted = new ArrayList<>();
+    for (int start = 0; start < keys.size(); start += MAX_BATCH_SIZE) {
+      List<Key> batch = keys.subList(start, Math.min(start + MAX_BATCH_SIZE, keys.size()));
+      for (Entity entity : datastore.get(batch).values()) {
+        deleted.add(Comment.fromEntity(entity));
+      }
+      datastore.delete(batch);
+    }
+    long version = commitCounts(datastore, CommentCounters.countByAuthor(deleted, -1));
+    cache.invalidate();
+    notifyDeleted(ids, version);
+    return deleted.size();
+  }
+
+  /**
+   * Deletes one comment in a single transaction with the version bump, the snapshot and the counts,
+   * so that other instances never see one without the others.
+   *
+   * @return 1 if the comment existed, 0 otherwise.
+   * @throws ConcurrentModificationException If another transaction changed the same entities first.
+   */
+  private int deleteOne(DatastoreService datastore, long id) {
+    Key key = KeyFactory.createKey(ENTITY_NAME, id);
+    Transaction transaction = datastore.beginTransaction(TransactionOptions.Builder.withXG(true));
+    try {
+      int deletedCount = 0;
+      try {
+        Comment deleted = Comment.fromEntity(datastore.get(transaction, key));
+        deletedCount = 1;
+        CommentCounters.add(
+            datastore,
+            transaction,
+            CommentCounters.countByAuthor(Collections.singletonList(deleted), -1));
+      } catch (EntityNotFoundException e) {
+        // Nothing to count; the version is bumped all the same.
+      }
+      datastore.delete(transaction, key);
+      long version = CommentsVersion.increment(datastore, transaction);
+      CommentsSnapshot.remove(datastore, transaction, id, version);
+      transaction.commit();
+
+      cache.remove(id, version);
+      notifyDeleted(Collections.singletonList(id), version);
+      return deletedCount;
+    } finally {
+      if (transaction.isActive()) {
+        transaction.rollback();
+      }
+    }
+  }
+
+  /**
+   * Stores the sanitized HTML and plain text of the comments written before comments were
+   * sanitized, so that they are not sanitized again every time they are read. Run once by {@link
+   * Migrations}. The comments are rewritten in transactions, so that one deleted meanwhile stays
+   * deleted.
+   */
+  public static void sanitizeLegacyComments(DatastoreService datastore) {
+    List<Key> legacy = new ArrayList<>();
+    Query query = new Query(ENTITY_NAME);
+    for (Entity entity :
+        datastore.prepare(query).asIterable(FetchOptions.Builder.withChunkSize(MAX_BATCH_SIZE))) {
+      if (!entity.hasProperty("html")) {
+        legacy.add(entity.getKey());
+      }
+    }
+
+    for (int start = 0; start < legacy.size(); start += MAX_TRANSACTION_GROUPS) {
+      List<Key> batch =
+          legacy.subList(start, Math.min(start + MAX_TRANSACTION_GROUPS, legacy.size()));
+      Transaction transaction = datastore.beginTransaction(TransactionOptions.Builder.withXG(true));
+      try {
+        List<Entity> sanitized = new ArrayList<>();
+        for (Map.Entry<Key, Entity> entity : datastore.get(transaction, batch).entrySet()) {
+          if (!entity.getValue().hasProperty("html")) {
+            Comment.fromEntity(entity.getValue()).setSanitizedText(entity.getValue());
+            sanitized.add(entity.getValue());
+          }
+        }
+        datastore.put(transaction, sanitized);
+        transaction.commit();
+      } finally {
+        if (transaction.isActive()) {
+          transaction.rollback();
+        }
+      }
+    }
+  }
+
+  /**
+   * Seeds the comment counts with the comments written before they were kept, which would otherwise
+   * be missing from them, and would drive them below zero once deleted. Run once by {@link
+   * Migrations}.
+   */
+  public static void recountComments(DatastoreService datastore) {
+    try {
+      CommentCounters.recount(datastore);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while counting the comments", e);
+    }
+  }
+
+  /** Changes the counts and then bumps the version, each in transactions of their own. */
+  private static long commitCounts(DatastoreService datastore, Map<String, Long> deltas)
+      throws IOException {
+    try {
+      CommentCounters.add(datastore, deltas);
+      return CommentsVersion.increment(datastore);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while counting the comments");
+    }
+  }
+
+  private static Query newQuery() {
+    return new Query(ENTITY_NAME).addSort("publish-time", SortDirection.DESCENDING);
+  }
+
+  private static DatastoreService getDatastore() {
+    return DatastoreServiceFactory.getDatastoreService();
+  }
+}
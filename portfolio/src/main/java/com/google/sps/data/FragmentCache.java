@@ -0,0 +1,48 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.sps.data;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Cache of serialized response fragments, shared by the servlets. Keys name everything a fragment
+ * depends on, including the version of the data it was built from, so fragments are never
+ * invalidated: a change moves readers on to new keys and the old fragments are eventually evicted.
+ *
+ * <p>Caches may drop any fragment at any time, and may fail silently.
+ */
+public interface FragmentCache {
+  /** Returns the fragments cached for the given keys. Keys with no fragment are left out. */
+  Map<String, byte[]> getAll(Collection<String> keys);
+
+  /** Returns the fragment cached for the key, or null if there is none. */
+  default byte[] get(String key) {
+    return getAll(Collections.singleton(key)).get(key);
+  }
+
+  /** Caches a fragment, replacing any previous one. */
+  void put(String key, byte[] value);
+
+  /** Caches fragments, replacing any previous ones, in one round trip. */
+  void putAll(Map<String, byte[]> values);
+
+  /**
+   * Caches a fragment unless the key already has one.
+   *
+   * @return Whether the fragment was cached.
+   */
+  boolean putIfAbsent(String key, byte[] value);
+}
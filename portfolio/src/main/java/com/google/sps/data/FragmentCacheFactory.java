@@ -0,0 +1,57 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.sps.data;
+
+/**
+ * Creates the {@link FragmentCache} the servlets use, chosen by the {@code fragments.cache} system
+ * property:
+ *
+ * <ul>
+ *   <li>{@code memcache}: App Engine Memcache, shared by every instance.
+ *   <li>{@code local}: in the memory of this instance, holding at most {@code fragments.capacity}
+ *       fragments (1000 by default).
+ * </ul>
+ *
+ * The default is {@code memcache} with the Datastore comment store and {@code local} with the
+ * others, whose versions only mean something within one instance.
+ */
+public final class FragmentCacheFactory {
+  private static final int DEFAULT_CAPACITY = 1000;
+
+  private static FragmentCache cache;
+
+  private FragmentCacheFactory() {}
+
+  public static synchronized FragmentCache getFragmentCache() {
+    if (cache == null) {
+      String defaultType =
+          System.getProperty("comments.store", "datastore").equals("datastore")
+              ? "memcache"
+              : "local";
+      cache = createFragmentCache(System.getProperty("fragments.cache", defaultType));
+    }
+    return cache;
+  }
+
+  private static FragmentCache createFragmentCache(String type) {
+    switch (type) {
+      case "memcache":
+        return new MemcacheFragmentCache();
+      case "local":
+        return new LocalFragmentCache(Integer.getInteger("fragments.capacity", DEFAULT_CAPACITY));
+      default:
+        throw new IllegalStateException("Unknown fragments.cache: " + type);
+    }
+  }
+}
@@ -0,0 +1,143 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Geohashes, which name the cells of a grid laid over the map so that cells sharing a prefix are
+ * nested. Markers store theirs, and the markers inside a box are found with range scans over the
+ * few prefixes that cover it.
+ */
+public final class Geohash {
+  /** The precision stored with each marker, cells of a few centimeters. */
+  public static final int PRECISION = 12;
+
+  // The most cells, and so range scans, used to cover a box.
+  private static final int MAX_COVERING_CELLS = 8;
+  private static final String BASE32 = "0123456789bcdefghjkmnpqrstuvwxyz";
+
+  private Geohash() {}
+
+  /** Returns the geohash of the cell of the given precision holding the position. */
+  public static String encode(double latitude, double longitude, int precision) {
+    double minLat = -90;
+    double maxLat = 90;
+    double minLng = -180;
+    double maxLng = 180;
+
+    StringBuilder hash = new StringBuilder(precision);
+    boolean evenBit = true;
+    int bit = 0;
+    int character = 0;
+    while (hash.length() < precision) {
+      // Bits alternate between longitude and latitude, starting with longitude.
+      if (evenBit) {
+        double middle = (minLng + maxLng) / 2;
+        if (longitude >= middle) {
+          character = character * 2 + 1;
+          minLng = middle;
+        } else {
+          character *= 2;
+          maxLng = middle;
+        }
+      } else {
+        double middle = (minLat + maxLat) / 2;
+        if (latitude >= middle) {
+          character = character * 2 + 1;
+          minLat = middle;
+        } else {
+          character *= 2;
+          maxLat = middle;
+        }
+      }
+      evenBit = !evenBit;
+
+      if (++bit == 5) {
+        hash.append(BASE32.charAt(character));
+        bit = 0;
+        character = 0;
+      }
+    }
+    return hash.toString();
+  }
+
+  /**
+   * Returns geohash prefixes whose cells together cover the box, using the finest cells for which
+   * only a few are needed. The box must not cross the antimeridian.
+   *
+   * @return The prefixes, or a single empty prefix if the box is so large that the whole map has to
+   *     be scanned.
+   */
+  public static List<String> cover(double minLat, double maxLat, double minLng, double maxLng) {
+    int precision = 0;
+    while (precision < PRECISION
+        && countCells(minLat, maxLat, minLng, maxLng, precision + 1) <= MAX_COVERING_CELLS) {
+      precision++;
+    }
+
+    List<String> prefixes = new ArrayList<>();
+    if (precision == 0) {
+      prefixes.add("");
+      return prefixes;
+    }
+
+    double height = cellHeight(precision);
+    double width = cellWidth(precision);
+    for (long y = row(minLat, height); y <= row(maxLat, height); y++) {
+      for (long x = column(minLng, width); x <= column(maxLng, width); x++) {
+        // The center of the cell is well inside it, away from rounding at its edges.
+        prefixes.add(encode(-90 + (y + 0.5) * height, -180 + (x + 0.5) * width, precision));
+      }
+    }
+    return prefixes;
+  }
+
+  private static long countCells(
+      double minLat, double maxLat, double minLng, double maxLng, int precision) {
+    double height = cellHeight(precision);
+    double width = cellWidth(precision);
+    long rows = row(maxLat, height) - row(minLat, height) + 1;
+    long columns = column(maxLng, width) - column(minLng, width) + 1;
+    return rows * columns;
+  }
+
+  /** Returns the row of the cells of the given height holding a latitude. */
+  private static long row(double latitude, double height) {
+    return cellIndex(latitude + 90, 180, height);
+  }
+
+  /** Returns the column of the cells of the given width holding a longitude. */
+  private static long column(double longitude, double width) {
+    return cellIndex(longitude + 180, 360, width);
+  }
+
+  private static long cellIndex(double offset, double span, double size) {
+    // The last edge belongs to the last cell, like in encode().
+    long last = Math.round(span / size) - 1;
+    return Math.max(0, Math.min((long) Math.floor(offset / size), last));
+  }
+
+  /** Returns the height in degrees of the cells of the given precision. */
+  private static double cellHeight(int precision) {
+    return 180 / Math.pow(2, (5 * precision) / 2);
+  }
+
+  /** Returns the width in degrees of the cells of the given precision. */
+  private static double cellWidth(int precision) {
+    return 360 / Math.pow(2, (5 * precision + 1) / 2);
+  }
+}
@@ -0,0 +1,159 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.sps.data;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.function.Consumer;
+
+/**
+ * Comment store that keeps everything in memory, for tests and benchmarks of the servlets without
+ * App Engine. Reads never block; writes are serialized.
+ */
+public class InMemoryCommentStore extends AbstractCommentStore {
+  private final NavigableSet<Comment> comments = new ConcurrentSkipListSet<>(NEWEST_FIRST);
+  private final Map<Long, Comment> commentsById = new ConcurrentHashMap<>();
+  private final Map<String, Long> countsByAuthor = new ConcurrentHashMap<>();
+  private long nextId = 1;
+  private volatile long version;
+
+  @Override
+  public long getVersion() {
+    return version;
+  }
+
+  @Override
+  public String list(int limit, String cursor, Consumer<Comment> consumer) {
+    NavigableSet<Comment> page = comments;
+    if (cursor != null && !cursor.isEmpty()) {
+      if (!isKeysetCursor(cursor)) {
+        throw new IllegalArgumentException("Invalid cursor");
+      }
+      page = comments.tailSet(parseKeysetCursor(cursor), false);
+    }
+
+    int count = 0;
+    Comment last = null;
+    for (Comment comment : page) {
+      if (count == limit) {
+        break;
+      }
+      consumer.accept(comment);
+      last = comment;
+      count++;
+    }
+    return count == limit && last != null ? cursorAfter(last) : null;
+  }
+
+  @Override
+  public CommentStats getStats(String authorEmail) {
+    Long authorCount = null;
+    if (authorEmail != null) {
+      authorCount = countsByAuthor.getOrDefault(authorEmail, 0L);
+    }
+    return new CommentStats(commentsById.size(), authorEmail, authorCount);
+  }
+
+  @Override
+  public void forEach(Consumer<Comment> consumer) {
+    comments.forEach(consumer);
+  }
+
+  @Override
+  public synchronized List<Comment> add(List<Comment> newComments) throws IOException {
+    List<Comment> added = new ArrayList<>();
+    for (Comment comment : newComments) {
+      added.add(comment.withId(nextId++));
+    }
+
+    beforeAdd(added);
+    for (Comment comment : added) {
+      put(comment);
+    }
+    version++;
+    notifyAdded(added, version);
+    return added;
+  }
+
+  @Override
+  public synchronized int delete(Collection<Long> ids) throws IOException {
+    beforeDelete(ids);
+    int deleted = 0;
+    for (long id : ids) {
+      if (remove(id)) {
+        deleted++;
+      }
+    }
+    version++;
+    notifyDeleted(ids, version);
+    return deleted;
+  }
+
+  /**
+   * Called with the comments about to be added, once their ids are assigned, before any of them is
+   * visible. Throwing cancels the addition.
+   */
+  protected void beforeAdd(List<Comment> added) throws IOException {}
+
+  /** Called with the ids about to be deleted. Throwing cancels the deletion. */
+  protected void beforeDelete(Collection<Long> ids) throws IOException {}
+
+  /** Adds a comment without notifying anyone, keeping the ids assigned after it. */
+  protected void put(Comment comment) {
+    Comment previous = commentsById.put(comment.getId(), comment);
+    if (previous != null) {
+      comments.remove(previous);
+      count(previous, -1);
+    }
+    comments.add(comment);
+    count(comment, 1);
+    nextId = Math.max(nextId, comment.getId() + 1);
+  }
+
+  /**
+   * Removes a comment without notifying anyone.
+   *
+   * @return Whether there was such a comment.
+   */
+  protected boolean remove(long id) {
+    Comment removed = commentsById.remove(id);
+    if (removed == null) {
+      return false;
+    }
+    comments.remove(removed);
+    count(removed, -1);
+    return true;
+  }
+
+  private void count(Comment comment, long delta) {
+    if (comment.getAuthorEmail() != null) {
+      countsByAuthor.merge(comment.getAuthorEmail(), delta, (a, b) -> a + b == 0 ? null : a + b);
+    }
+  }
+
+  /** Returns the number of comments stored. */
+  protected int size() {
+    return commentsById.size();
+  }
+
+  protected void setVersion(long version) {
+    this.version = version;
+  }
+}
@@ -0,0 +1,68 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.sps.data;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Fragment cache held in the memory of this instance, evicting the least recently used fragments
+ * past a fixed number. It stands in for {@link MemcacheFragmentCache} in tests and benchmarks, and
+ * with comment stores whose versions are local to the instance.
+ */
+public final class LocalFragmentCache implements FragmentCache {
+  private final Map<String, byte[]> fragments;
+
+  /**
+   * @param capacity The most fragments kept.
+   */
+  public LocalFragmentCache(int capacity) {
+    this.fragments =
+        new LinkedHashMap<String, byte[]>(16, 0.75f, true) {
+          @Override
+          protected boolean removeEldestEntry(Map.Entry<String, byte[]> eldest) {
+            return size() > capacity;
+          }
+        };
+  }
+
+  @Override
+  public synchronized Map<String, byte[]> getAll(Collection<String> keys) {
+    Map<String, byte[]> found = new HashMap<>();
+    for (String key : keys) {
+      byte[] value = fragments.get(key);
+      if (value != null) {
+        found.put(key, value);
+      }
+    }
+    return found;
+  }
+
+  @Override
+  public synchronized void put(String key, byte[] value) {
+    fragments.put(key, value);
+  }
+
+  @Override
+  public synchronized void putAll(Map<String, byte[]> values) {
+    fragments.putAll(values);
+  }
+
+  @Override
+  public synchronized boolean putIfAbsent(String key, byte[] value) {
+    return fragments.putIfAbsent(key, value) == null;
+  }
+}
@@ -0,0 +1,253 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.sps.data;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Comment store kept in memory and made durable by a local append-only log, for running the app
+ * without App Engine. Every addition or deletion is appended to the log and forced to disk before
+ * it becomes visible, and the log is replayed on startup.
+ *
+ * <p>Once the log holds more than twice as many records as there are comments, it is compacted: the
+ * live comments are written to a new file, which atomically replaces the log.
+ *
+ * <p>Every record carries the version of the change it belongs to, and a compacted log starts with
+ * a record of the version it was compacted at, so the version never goes back on a restart.
+ */
+public final class LogCommentStore extends InMemoryCommentStore {
+  private static final int MIN_RECORDS_TO_COMPACT = 1000;
+
+  private final Path path;
+  private final Gson gson = new Gson();
+  private FileOutputStream output;
+  private Writer log;
+  private long records;
+
+  /** One line of the log. */
+  private static final class Record {
+    private static final String ADD = "add";
+    private static final String DELETE = "delete";
+    private static final String VERSION = "version";
+
+    private String op;
+    private long id;
+    private String authorEmail;
+    private String commentText;
+    private String commentHtml;
+    private String plainText;
+    private Long publishMillis;
+    // Missing from the records logged before it was added, which counted one version each.
+    private Long version;
+
+    private static Record add(Comment comment, long version) {
+      Record record = new Record();
+      record.op = ADD;
+      record.version = version;
+      record.id = comment.getId();
+      record.authorEmail = comment.getAuthorEmail();
+      record.commentText = comment.getCommentText();
+      record.commentHtml = comment.getCommentHtml();
+      record.plainText = comment.getPlainText();
+      record.publishMillis = comment.getPublishTime().getTime();
+      return record;
+    }
+
+    private static Record delete(long id, long version) {
+      Record record = new Record();
+      record.op = DELETE;
+      record.id = id;
+      record.version = version;
+      return record;
+    }
+
+    private static Record version(long version) {
+      Record record = new Record();
+      record.op = VERSION;
+      record.version = version;
+      return record;
+    }
+  }
+
+  /**
+   * Opens the log at the given path, creating it if needed, and replays it.
+   *
+   * @throws IOException If the log cannot be read or opened for writing, or a record other than the
+   *     last one is corrupt.
+   */
+  public LogCommentStore(Path path) throws IOException {
+    this.path = path;
+
+    boolean damaged = false;
+    long version = 0;
+    if (Files.exists(path)) {
+      try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+        String line;
+        int lineNumber = 0;
+        while ((line = reader.readLine()) != null) {
+          lineNumber++;
+          if (line.isEmpty()) {
+            continue;
+          }
+
+          Record record;
+          try {
+            record = gson.fromJson(line, Record.class);
+          } catch (JsonParseException e) {
+            // Only the last record can be cut short, by a crash while it was written. A bad record
+            // followed by others means the log is corrupt, and dropping the rest would lose them.
+            if (hasRecords(reader)) {
+              throw new IOException("Corrupt record on line " + lineNumber + " of " + path, e);
+            }
+            damaged = true;
+            break;
+          }
+          apply(record);
+          version = record.version != null ? Math.max(version, record.version) : version + 1;
+          records++;
+        }
+      }
+    }
+    setVersion(version);
+
+    if (damaged) {
+      compact();
+    } else {
+      open();
+    }
+  }
+
+  @Override
+  protected void beforeAdd(List<Comment> added) throws IOException {
+    List<Record> newRecords = new ArrayList<>();
+    // Called with the store locked, just before the version moves on.
+    long version = getVersion() + 1;
+    for (Comment comment : added) {
+      newRecords.add(Record.add(comment, version));
+    }
+    append(newRecords);
+  }
+
+  @Override
+  protected void beforeDelete(Collection<Long> ids) throws IOException {
+    List<Record> newRecords = new ArrayList<>();
+    long version = getVersion() + 1;
+    for (long id : ids) {
+      newRecords.add(Record.delete(id, version));
+    }
+    append(newRecords);
+  }
+
+  /** Appends records to the log and forces them to disk. Called with the store locked. */
+  private void append(List<Record> newRecords) throws IOException {
+    if (records >= MIN_RECORDS_TO_COMPACT && records > 2L * size()) {
+      compact();
+    }
+
+    for (Record record : newRecords) {
+      log.write(gson.toJson(record));
+      log.write('\n');
+    }
+    log.flush();
+    output.getChannel().force(false);
+    records += newRecords.size();
+  }
+
+  /** Rewrites the log with one record per comment, then replaces the old log with it. */
+  private void compact() throws IOException {
+    if (log != null) {
+      log.close();
+    }
+
+    Path compacted = path.resolveSibling(path.getFileName() + ".tmp");
+    long version = getVersion();
+    List<Record> liveRecords = new ArrayList<>();
+    liveRecords.add(Record.version(version));
+    forEach(comment -> liveRecords.add(Record.add(comment, version)));
+    try {
+      writeRecords(compacted, liveRecords);
+      Files.move(
+          compacted, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      records = liveRecords.size();
+    } finally {
+      // If the compaction failed, the old log is kept and appended to.
+      open();
+    }
+  }
+
+  private void writeRecords(Path target, List<Record> liveRecords) throws IOException {
+    try (FileOutputStream compactedOutput = new FileOutputStream(target.toFile());
+        Writer writer =
+            new BufferedWriter(new OutputStreamWriter(compactedOutput, StandardCharsets.UTF_8))) {
+      for (Record record : liveRecords) {
+        writer.write(gson.toJson(record));
+        writer.write('\n');
+      }
+      writer.flush();
+      compactedOutput.getChannel().force(false);
+    }
+  }
+
+  /** Returns whether any non-empty line is left to read. */
+  private static boolean hasRecords(BufferedReader reader) throws IOException {
+    String line;
+    while ((line = reader.readLine()) != null) {
+      if (!line.isEmpty()) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private void open() throws IOException {
+    output = new FileOutputStream(path.toFile(), true);
+    log = new BufferedWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8));
+  }
+
+  private void apply(Record record) {
+    if (Record.ADD.equals(record.op)) {
+      Date publishTime = new Date(record.publishMillis);
+      if (record.commentHtml == null) {
+        // Logged before comments were sanitized.
+        put(new Comment(record.authorEmail, record.commentText, record.id, publishTime));
+      } else {
+        put(
+            Comment.fromStored(
+                record.authorEmail,
+                record.commentText,
+                record.commentHtml,
+                record.plainText,
+                record.id,
+                publishTime));
+      }
+    } else if (Record.DELETE.equals(record.op)) {
+      remove(record.id);
+    }
+  }
+}
@@ -14,24 +14,26 @@
 
 package com.google.sps.data;
 
-import com.google.appengine.api.users.UserService;
-
 public final class LoginStatus {
   private final boolean loggedIn;
   private final String userEmail;
   private final String loginUrl;
   private final String logoutUrl;
 
-  public LoginStatus(String userEmail, UserService userService) {
+  /**
+   * @param userEmail The email address of the user, or an empty string if nobody is logged in.
+   * @param url The URL to log in if nobody is logged in, or to log out otherwise.
+   */
+  public LoginStatus(String userEmail, String url) {
     this.userEmail = userEmail;
-    if (userEmail == "") {
+    if (userEmail.isEmpty()) {
       this.loggedIn = false;
-      this.loginUrl = userService.createLoginURL("/");
+      this.loginUrl = url;
       this.logoutUrl = "";
     } else {
       this.loggedIn = true;
       this.loginUrl = "";
-      this.logoutUrl = userService.createLogoutURL("/");
+      this.logoutUrl = url;
     }
   }
 }
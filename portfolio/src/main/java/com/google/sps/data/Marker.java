@@ -28,4 +28,16 @@ public final class Marker {
     this.longitude = longitude;
     this.content = content;
   }
+
+  public double getLatitude() {
+    return latitude;
+  }
+
+  public double getLongitude() {
+    return longitude;
+  }
+
+  public String getContent() {
+    return content;
+  }
 }
@@ -0,0 +1,395 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
+
+/**
+ * In-memory clusters of the markers for every zoom level of the map up to {@code MAX_ZOOM}. At each
+ * level the map, in Web Mercator pixels, is cut into square cells of {@code CELL_PIXELS}, and the
+ * markers of a cell form one cluster, kept as the sums of their coordinates and their count in
+ * primitive arrays. A cell is made of four cells of the next level, so the clusters nest.
+ *
+ * <p>The clusters are built from every marker when the app starts, by {@code MarkerIndexLoader},
+ * and kept up to date as markers are added through this instance. When the generation of the
+ * markers shows a change they were not told about, for example one made by another instance or the
+ * generation being evicted from the cache, one read rebuilds them at most every {@code
+ * MIN_REBUILD_INTERVAL_MILLIS}. The new clusters are built without holding the lock, so the other
+ * reads keep using the old ones meanwhile.
+ */
+public final class MarkerClusterIndex {
+  /** The deepest zoom level clustered; beyond it, markers are few enough to show one by one. */
+  public static final int MAX_ZOOM = 16;
+
+  // Size of the cells on screen; markers closer than that may be merged.
+  private static final int CELL_PIXELS = 64;
+  private static final int TILE_PIXELS = 256;
+  // The cells along each side of a tile, which hold whole clusters.
+  private static final int CELLS_PER_TILE = TILE_PIXELS / CELL_PIXELS;
+
+  private static final long MIN_REBUILD_INTERVAL_MILLIS = 10 * 1000;
+
+  private static final MarkerClusterIndex INSTANCE = new MarkerClusterIndex();
+
+  private final ReadWriteLock lock = new ReentrantReadWriteLock();
+  private final AtomicBoolean rebuilding = new AtomicBoolean();
+  private Level[] levels = newLevels();
+  // The markers added while new levels are being built, to add to them before they are swapped in.
+  private List<PendingMarker> pending;
+
+  // The generation of the markers the clusters match, or null if they have not been built.
+  private volatile String generation;
+  private volatile long rebuiltMillis;
+
+  /** A marker added while the levels were being rebuilt. */
+  private static final class PendingMarker {
+    private final Marker marker;
+    private final String previousGeneration;
+    private final String newGeneration;
+
+    private PendingMarker(Marker marker, String previousGeneration, String newGeneration) {
+      this.marker = marker;
+      this.previousGeneration = previousGeneration;
+      this.newGeneration = newGeneration;
+    }
+  }
+
+  /** A cluster of markers, at the average position of its markers. */
+  public static final class Cluster {
+    private final double latitude;
+    private final double longitude;
+    private final int count;
+
+    private Cluster(double latitude, double longitude, int count) {
+      this.latitude = latitude;
+      this.longitude = longitude;
+      this.count = count;
+    }
+
+    public double getLatitude() {
+      return latitude;
+    }
+
+    public double getLongitude() {
+      return longitude;
+    }
+
+    public int getCount() {
+      return count;
+    }
+  }
+
+  /** The clusters of a tile, and whether they were taken from clusters of the current markers. */
+  public static final class TileClusters {
+    private final List<Cluster> clusters;
+    private final boolean current;
+
+    private TileClusters(List<Cluster> clusters, boolean current) {
+      this.clusters = clusters;
+      this.current = current;
+    }
+
+    public List<Cluster> getClusters() {
+      return clusters;
+    }
+
+    /**
+     * Returns whether the clusters matched the generation asked for. Stale clusters are served
+     * while they are rebuilt, but must not be cached as the tile of that generation.
+     */
+    public boolean isCurrent() {
+      return current;
+    }
+  }
+
+  /** The clusters of one zoom level, by cell. */
+  private static final class Level {
+    private final CellTable cells = new CellTable();
+    private long[] cellsByIndex = new long[16];
+    private double[] latitudeSums = new double[16];
+    private double[] longitudeSums = new double[16];
+    private int[] counts = new int[16];
+    private int size;
+
+    private void add(long cell, double latitude, double longitude) {
+      int index = cells.get(cell);
+      if (index < 0) {
+        if (size == counts.length) {
+          cellsByIndex = Arrays.copyOf(cellsByIndex, size * 2);
+          latitudeSums = Arrays.copyOf(latitudeSums, size * 2);
+          longitudeSums = Arrays.copyOf(longitudeSums, size * 2);
+          counts = Arrays.copyOf(counts, size * 2);
+        }
+        index = size++;
+        cells.put(cell, index);
+        cellsByIndex[index] = cell;
+      }
+      latitudeSums[index] += latitude;
+      longitudeSums[index] += longitude;
+      counts[index]++;
+    }
+
+    private Cluster getCluster(int index) {
+      return new Cluster(
+          latitudeSums[index] / counts[index], longitudeSums[index] / counts[index], counts[index]);
+    }
+  }
+
+  /** Open-addressing hash table from cells to the index of their cluster, without boxing. */
+  private static final class CellTable {
+    private long[] keys = new long[32];
+    private int[] values = new int[32];
+    private boolean[] used = new boolean[32];
+    private int size;
+
+    /** Returns the index of the cluster of the cell, or -1 if it has none. */
+    private int get(long cell) {
+      int mask = keys.length - 1;
+      for (int slot = hash(cell) & mask; used[slot]; slot = (slot + 1) & mask) {
+        if (keys[slot] == cell) {
+          return values[slot];
+        }
+      }
+      return -1;
+    }
+
+    private void put(long cell, int value) {
+      if ((size + 1) * 2 > keys.length) {
+        grow();
+      }
+      int mask = keys.length - 1;
+      int slot = hash(cell) & mask;
+      while (used[slot] && keys[slot] != cell) {
+        slot = (slot + 1) & mask;
+      }
+      if (!used[slot]) {
+        used[slot] = true;
+        keys[slot] = cell;
+        size++;
+      }
+      values[slot] = value;
+    }
+
+    private void grow() {
+      long[] oldKeys = keys;
+      int[] oldValues = values;
+      boolean[] oldUsed = used;
+      keys = new long[oldKeys.length * 2];
+      values = new int[oldKeys.length * 2];
+      used = new boolean[oldKeys.length * 2];
+      size = 0;
+      for (int slot = 0; slot < oldKeys.length; slot++) {
+        if (oldUsed[slot]) {
+          put(oldKeys[slot], oldValues[slot]);
+        }
+      }
+    }
+
+    private static int hash(long cell) {
+      long mixed = cell * 0x9E3779B97F4A7C15L;
+      return (int) (mixed ^ (mixed >>> 32));
+    }
+  }
+
+  private MarkerClusterIndex() {}
+
+  public static MarkerClusterIndex getInstance() {
+    return INSTANCE;
+  }
+
+  /**
+   * Returns the clusters of a zoom level whose position is inside the viewport. A viewport crossing
+   * the antimeridian has {@code minLng} greater than {@code maxLng}.
+   *
+   * @param currentGeneration The generation of the markers stored.
+   * @param markers Loads every marker, if the clusters must be built.
+   * @param zoom The zoom level, from 0 to {@code MAX_ZOOM}.
+   */
+  public List<Cluster> getClusters(
+      String currentGeneration,
+      Supplier<List<Marker>> markers,
+      int zoom,
+      double minLat,
+      double maxLat,
+      double minLng,
+      double maxLng) {
+    refreshIfStale(currentGeneration, markers);
+
+    lock.readLock().lock();
+    try {
+      Level level = levels[zoom];
+      List<Cluster> clusters = new ArrayList<>();
+      for (int i = 0; i < level.size; i++) {
+        Cluster cluster = level.getCluster(i);
+        double latitude = cluster.latitude;
+        double longitude = cluster.longitude;
+        boolean insideLongitudes =
+            minLng <= maxLng
+                ? longitude >= minLng && longitude <= maxLng
+                : longitude >= minLng || longitude <= maxLng;
+        if (latitude >= minLat && latitude <= maxLat && insideLongitudes) {
+          clusters.add(cluster);
+        }
+      }
+      return clusters;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Returns the clusters of a {@link MarkerTiles} tile. A cell lies within a single tile, so every
+   * cluster belongs to exactly one tile of its level.
+   *
+   * @param currentGeneration The generation of the markers stored.
+   * @param markers Loads every marker, if the clusters must be built.
+   * @param zoom The zoom level of the tile, from 0 to {@code MAX_ZOOM}.
+   */
+  public TileClusters getClusters(
+      String currentGeneration, Supplier<List<Marker>> markers, int zoom, long x, long y) {
+    refreshIfStale(currentGeneration, markers);
+
+    lock.readLock().lock();
+    try {
+      Level level = levels[zoom];
+      List<Cluster> clusters = new ArrayList<>();
+      for (int i = 0; i < level.size; i++) {
+        long cell = level.cellsByIndex[i];
+        if ((cell >>> 32) / CELLS_PER_TILE == x && (cell & 0xFFFFFFFFL) / CELLS_PER_TILE == y) {
+          clusters.add(level.getCluster(i));
+        }
+      }
+      // The levels and their generation only change together under the write lock.
+      return new TileClusters(clusters, currentGeneration.equals(generation));
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Adds a marker stored through this instance.
+   *
+   * @param previousGeneration The generation of the markers before this one was added.
+   * @param newGeneration The generation of the markers with this one.
+   */
+  public void add(Marker marker, String previousGeneration, String newGeneration) {
+    lock.writeLock().lock();
+    try {
+      addToLevels(levels, marker);
+      if (pending != null) {
+        pending.add(new PendingMarker(marker, previousGeneration, newGeneration));
+      }
+      // After a missed change the generation is left behind, so that a read rebuilds the clusters.
+      if (generation != null && generation.equals(previousGeneration)) {
+        generation = newGeneration;
+      }
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Builds the clusters from every marker of a generation, and replaces the current ones with them.
+   * The markers are read without holding the lock, so reads go on meanwhile.
+   *
+   * @param currentGeneration The generation of the markers stored.
+   * @param markers Loads every marker of that generation.
+   */
+  public synchronized void load(String currentGeneration, Supplier<List<Marker>> markers) {
+    setPending(new ArrayList<>());
+    try {
+      Level[] loaded = newLevels();
+      for (Marker marker : markers.get()) {
+        addToLevels(loaded, marker);
+      }
+
+      lock.writeLock().lock();
+      try {
+        // The markers added meanwhile on top of the loaded generation are added to the new levels.
+        String loadedGeneration = currentGeneration;
+        for (PendingMarker added : pending) {
+          if (added.previousGeneration.equals(loadedGeneration)) {
+            addToLevels(loaded, added.marker);
+            loadedGeneration = added.newGeneration;
+          }
+        }
+        levels = loaded;
+        generation = loadedGeneration;
+        rebuiltMillis = System.currentTimeMillis();
+      } finally {
+        lock.writeLock().unlock();
+      }
+    } finally {
+      setPending(null);
+    }
+  }
+
+  private void setPending(List<PendingMarker> added) {
+    lock.writeLock().lock();
+    try {
+      pending = added;
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  private void refreshIfStale(String currentGeneration, Supplier<List<Marker>> markers) {
+    if (Objects.equals(generation, currentGeneration) && generation != null) {
+      return;
+    }
+    // Once built, stale clusters are still served while one read rebuilds them, and not more often
+    // than every MIN_REBUILD_INTERVAL_MILLIS however busy the other instances are.
+    if (generation != null
+        && System.currentTimeMillis() - rebuiltMillis < MIN_REBUILD_INTERVAL_MILLIS) {
+      return;
+    }
+    if (!rebuilding.compareAndSet(false, true)) {
+      return;
+    }
+
+    try {
+      load(currentGeneration, markers);
+    } finally {
+      rebuilding.set(false);
+    }
+  }
+
+  private static Level[] newLevels() {
+    Level[] levels = new Level[MAX_ZOOM + 1];
+    for (int zoom = 0; zoom <= MAX_ZOOM; zoom++) {
+      levels[zoom] = new Level();
+    }
+    return levels;
+  }
+
+  private static void addToLevels(Level[] levels, Marker marker) {
+    double x = MarkerTiles.mercatorX(marker.getLongitude());
+    double y = MarkerTiles.mercatorY(marker.getLatitude());
+
+    for (int zoom = 0; zoom <= MAX_ZOOM; zoom++) {
+      long cellsPerSide = ((long) TILE_PIXELS << zoom) / CELL_PIXELS;
+      long column = Math.min((long) (x * cellsPerSide), cellsPerSide - 1);
+      long row = Math.min((long) (y * cellsPerSide), cellsPerSide - 1);
+      levels[zoom].add((column << 32) | row, marker.getLatitude(), marker.getLongitude());
+    }
+  }
+}
@@ -0,0 +1,440 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+/**
+ * In-memory KD-tree of the markers for nearest-neighbour searches. Positions are stored as points
+ * on the unit sphere, in primitive arrays laid out as an implicit balanced tree, so the straight
+ * distance between two points grows with their great-circle distance and there are no special cases
+ * at the antimeridian or the poles. Reported distances are computed with the haversine formula.
+ *
+ * <p>Searches read an immutable snapshot and never block. Markers added through this instance are
+ * appended to a short list next to the tree, which is rebuilt once the list holds {@code
+ * MIN_PENDING_TO_REBUILD} markers, or the square root of the tree size beyond about a million
+ * markers.
+ *
+ * <p>When the generation of the markers shows a change the index was not told about, for example
+ * one made by another instance, one search rebuilds the snapshot from every marker, at most every
+ * {@code MIN_REBUILD_INTERVAL_MILLIS}. The other searches keep reading the old snapshot meanwhile.
+ */
+public final class MarkerSpatialIndex {
+  private static final double EARTH_RADIUS_KM = 6371.0088;
+  // Below this many recent markers, scanning them costs less than rebuilding the tree.
+  private static final int MIN_PENDING_TO_REBUILD = 1024;
+
+  private static final long MIN_REBUILD_INTERVAL_MILLIS = 10 * 1000;
+
+  private static final MarkerSpatialIndex INSTANCE = new MarkerSpatialIndex();
+
+  // Guards the changes to the snapshot and the markers added during a rebuild.
+  private final Object lock = new Object();
+  private final AtomicBoolean rebuilding = new AtomicBoolean();
+  private volatile Snapshot snapshot =
+      new Snapshot(null, new KdTree(new ArrayList<>()), new Marker[0]);
+  // The markers added while a new snapshot is being built, to add to it before it is swapped in.
+  private List<PendingMarker> added;
+  private volatile long rebuiltMillis;
+
+  /** A marker added while the snapshot was being rebuilt. */
+  private static final class PendingMarker {
+    private final Marker marker;
+    private final String previousGeneration;
+    private final String newGeneration;
+
+    private PendingMarker(Marker marker, String previousGeneration, String newGeneration) {
+      this.marker = marker;
+      this.previousGeneration = previousGeneration;
+      this.newGeneration = newGeneration;
+    }
+  }
+
+  /** A marker found near a position, with its distance from it. */
+  public static final class Neighbor {
+    private final double latitude;
+    private final double longitude;
+    private final String content;
+    private final double distanceKm;
+
+    private Neighbor(Marker marker, double distanceKm) {
+      this.latitude = marker.getLatitude();
+      this.longitude = marker.getLongitude();
+      this.content = marker.getContent();
+      this.distanceKm = distanceKm;
+    }
+
+    public double getLatitude() {
+      return latitude;
+    }
+
+    public double getLongitude() {
+      return longitude;
+    }
+
+    public String getContent() {
+      return content;
+    }
+
+    public double getDistanceKm() {
+      return distanceKm;
+    }
+  }
+
+  /** The tree of one generation of the markers and the markers added since it was built. */
+  private static final class Snapshot {
+    // The generation the markers match, or null if they have not been loaded.
+    private final String generation;
+    private final KdTree tree;
+    private final Marker[] pending;
+
+    private Snapshot(String generation, KdTree tree, Marker[] pending) {
+      this.generation = generation;
+      this.tree = tree;
+      this.pending = pending;
+    }
+  }
+
+  /** A balanced KD-tree whose node for the range [lo, hi) is at the middle of the range. */
+  private static final class KdTree {
+    private final double[][] coordinates;
+    private final Marker[] markers;
+
+    private KdTree(List<Marker> source) {
+      int size = source.size();
+      double[][] unordered = new double[3][size];
+      for (int i = 0; i < size; i++) {
+        toPoint(source.get(i), unordered, i);
+      }
+
+      int[] order = new int[size];
+      for (int i = 0; i < size; i++) {
+        order[i] = i;
+      }
+      build(order, unordered, 0, size, 0);
+
+      coordinates = new double[3][size];
+      markers = new Marker[size];
+      for (int i = 0; i < size; i++) {
+        for (int axis = 0; axis < 3; axis++) {
+          coordinates[axis][i] = unordered[axis][order[i]];
+        }
+        markers[i] = source.get(order[i]);
+      }
+    }
+
+    private int size() {
+      return markers.length;
+    }
+
+    /** Orders the range so that each node splits its range by the coordinate of its depth. */
+    private static void build(int[] order, double[][] points, int lo, int hi, int depth) {
+      if (hi - lo <= 1) {
+        return;
+      }
+      int mid = (lo + hi) >>> 1;
+      select(order, points[depth % 3], lo, hi - 1, mid);
+      build(order, points, lo, mid, depth + 1);
+      build(order, points, mid + 1, hi, depth + 1);
+    }
+
+    /** Moves the k-th smallest value of the range [lo, hi] to k, smaller ones before it. */
+    private static void select(int[] order, double[] values, int lo, int hi, int k) {
+      while (lo < hi) {
+        double pivot = values[order[(lo + hi) >>> 1]];
+        int i = lo;
+        int j = hi;
+        while (i <= j) {
+          while (values[order[i]] < pivot) {
+            i++;
+          }
+          while (values[order[j]] > pivot) {
+            j--;
+          }
+          if (i <= j) {
+            int swapped = order[i];
+            order[i] = order[j];
+            order[j] = swapped;
+            i++;
+            j--;
+          }
+        }
+        if (k <= j) {
+          hi = j;
+        } else if (k >= i) {
+          lo = i;
+        } else {
+          return;
+        }
+      }
+    }
+
+    private void search(double[] query, int lo, int hi, int depth, Neighbors neighbors) {
+      if (lo >= hi) {
+        return;
+      }
+      int mid = (lo + hi) >>> 1;
+      neighbors.offer(distanceSquared(query, coordinates, mid), mid);
+
+      int axis = depth % 3;
+      double difference = query[axis] - coordinates[axis][mid];
+      if (difference < 0) {
+        search(query, lo, mid, depth + 1, neighbors);
+        if (difference * difference <= neighbors.bound()) {
+          search(query, mid + 1, hi, depth + 1, neighbors);
+        }
+      } else {
+        search(query, mid + 1, hi, depth + 1, neighbors);
+        if (difference * difference <= neighbors.bound()) {
+          search(query, lo, mid, depth + 1, neighbors);
+        }
+      }
+    }
+  }
+
+  /**
+   * The closest points found so far, in a max-heap of primitive arrays. Points of the tree are
+   * numbered from 0 and pending markers from -1 down.
+   */
+  private static final class Neighbors {
+    private final double[] distances;
+    private final int[] points;
+    private final double limit;
+    private int size;
+
+    private Neighbors(int capacity, double limit) {
+      this.distances = new double[capacity];
+      this.points = new int[capacity];
+      this.limit = limit;
+    }
+
+    /** Returns the squared distance past which points cannot be among the closest. */
+    private double bound() {
+      return size < distances.length ? limit : Math.min(limit, distances[0]);
+    }
+
+    private void offer(double distance, int point) {
+      if (distance > bound()) {
+        return;
+      }
+      if (size < distances.length) {
+        int child = size++;
+        while (child > 0 && distances[(child - 1) / 2] < distance) {
+          distances[child] = distances[(child - 1) / 2];
+          points[child] = points[(child - 1) / 2];
+          child = (child - 1) / 2;
+        }
+        distances[child] = distance;
+        points[child] = point;
+        return;
+      }
+
+      // Replaces the farthest point and sifts the new one down.
+      int parent = 0;
+      while (true) {
+        int child = 2 * parent + 1;
+        if (child >= size) {
+          break;
+        }
+        if (child + 1 < size && distances[child + 1] > distances[child]) {
+          child++;
+        }
+        if (distances[child] <= distance) {
+          break;
+        }
+        distances[parent] = distances[child];
+        points[parent] = points[child];
+        parent = child;
+      }
+      distances[parent] = distance;
+      points[parent] = point;
+    }
+  }
+
+  private MarkerSpatialIndex() {}
+
+  public static MarkerSpatialIndex getInstance() {
+    return INSTANCE;
+  }
+
+  /**
+   * Builds the index from every marker of a generation, and replaces the current one with it. The
+   * markers are read without holding the lock, so searches and additions go on meanwhile.
+   *
+   * @param currentGeneration The generation of the markers stored.
+   * @param markers Loads every marker of that generation.
+   */
+  public synchronized void load(String currentGeneration, Supplier<List<Marker>> markers) {
+    setAdded(new ArrayList<>());
+    try {
+      KdTree tree = new KdTree(markers.get());
+
+      synchronized (lock) {
+        // The markers added meanwhile on top of the loaded generation are kept next to the tree.
+        String loadedGeneration = currentGeneration;
+        List<Marker> newer = new ArrayList<>();
+        for (PendingMarker marker : added) {
+          if (marker.previousGeneration.equals(loadedGeneration)) {
+            newer.add(marker.marker);
+            loadedGeneration = marker.newGeneration;
+          }
+        }
+        snapshot = new Snapshot(loadedGeneration, tree, newer.toArray(new Marker[0]));
+        rebuiltMillis = System.currentTimeMillis();
+      }
+    } finally {
+      setAdded(null);
+    }
+  }
+
+  /**
+   * Returns the markers closest to a position, closest first.
+   *
+   * @param currentGeneration The generation of the markers stored.
+   * @param markers Loads every marker, if the index must be built.
+   * @param count The most markers to return.
+   * @param maxDistanceKm How far the markers may be, or infinity for any distance.
+   */
+  public List<Neighbor> getNearest(
+      String currentGeneration,
+      Supplier<List<Marker>> markers,
+      double latitude,
+      double longitude,
+      int count,
+      double maxDistanceKm) {
+    Snapshot current = refreshIfStale(currentGeneration, markers);
+
+    double[][] query = new double[3][1];
+    toPoint(latitude, longitude, query, 0);
+    double[] point = {query[0][0], query[1][0], query[2][0]};
+
+    // The straight distance between two points of the unit sphere an angle apart.
+    double limit = 4;
+    if (maxDistanceKm < Math.PI * EARTH_RADIUS_KM) {
+      double chord = 2 * Math.sin(maxDistanceKm / EARTH_RADIUS_KM / 2);
+      limit = chord * chord;
+    }
+
+    Neighbors neighbors = new Neighbors(count, limit);
+    current.tree.search(point, 0, current.tree.size(), 0, neighbors);
+    double[][] pendingPoint = new double[3][1];
+    for (int i = 0; i < current.pending.length; i++) {
+      toPoint(current.pending[i], pendingPoint, 0);
+      neighbors.offer(distanceSquared(point, pendingPoint, 0), -1 - i);
+    }
+
+    List<Neighbor> nearest = new ArrayList<>();
+    for (int i = 0; i < neighbors.size; i++) {
+      int found = neighbors.points[i];
+      Marker marker = found >= 0 ? current.tree.markers[found] : current.pending[-1 - found];
+      nearest.add(new Neighbor(marker, haversineKm(latitude, longitude, marker)));
+    }
+    nearest.sort((a, b) -> Double.compare(a.distanceKm, b.distanceKm));
+    return nearest;
+  }
+
+  /**
+   * Adds a marker stored through this instance.
+   *
+   * @param previousGeneration The generation of the markers before this one was added.
+   * @param newGeneration The generation of the markers with this one.
+   */
+  public void add(Marker marker, String previousGeneration, String newGeneration) {
+    synchronized (lock) {
+      if (added != null) {
+        added.add(new PendingMarker(marker, previousGeneration, newGeneration));
+      }
+
+      Snapshot current = snapshot;
+      // After a missed change the generation is left behind, so that a search rebuilds the index.
+      String generation =
+          previousGeneration.equals(current.generation) ? newGeneration : current.generation;
+      Marker[] pending = Arrays.copyOf(current.pending, current.pending.length + 1);
+      pending[pending.length - 1] = marker;
+      if (pending.length < Math.max(MIN_PENDING_TO_REBUILD, Math.sqrt(current.tree.size()))) {
+        snapshot = new Snapshot(generation, current.tree, pending);
+        return;
+      }
+
+      List<Marker> all = new ArrayList<>(Arrays.asList(current.tree.markers));
+      all.addAll(Arrays.asList(pending));
+      snapshot = new Snapshot(generation, new KdTree(all), new Marker[0]);
+    }
+  }
+
+  private void setAdded(List<PendingMarker> markers) {
+    synchronized (lock) {
+      added = markers;
+    }
+  }
+
+  private Snapshot refreshIfStale(String currentGeneration, Supplier<List<Marker>> markers) {
+    Snapshot current = snapshot;
+    if (current.generation != null && current.generation.equals(currentGeneration)) {
+      return current;
+    }
+    // Once built, a stale index is still searched while one search rebuilds it, and not more often
+    // than every MIN_REBUILD_INTERVAL_MILLIS however busy the other instances are.
+    if (current.generation != null
+        && System.currentTimeMillis() - rebuiltMillis < MIN_REBUILD_INTERVAL_MILLIS) {
+      return current;
+    }
+    if (!rebuilding.compareAndSet(false, true)) {
+      return current;
+    }
+
+    try {
+      load(currentGeneration, markers);
+    } finally {
+      rebuilding.set(false);
+    }
+    return snapshot;
+  }
+
+  private static void toPoint(Marker marker, double[][] points, int index) {
+    toPoint(marker.getLatitude(), marker.getLongitude(), points, index);
+  }
+
+  /** Stores the point of the unit sphere at the position. */
+  private static void toPoint(double latitude, double longitude, double[][] points, int index) {
+    double phi = Math.toRadians(latitude);
+    double lambda = Math.toRadians(longitude);
+    points[0][index] = Math.cos(phi) * Math.cos(lambda);
+    points[1][index] = Math.cos(phi) * Math.sin(lambda);
+    points[2][index] = Math.sin(phi);
+  }
+
+  private static double distanceSquared(double[] query, double[][] points, int index) {
+    double dx = query[0] - points[0][index];
+    double dy = query[1] - points[1][index];
+    double dz = query[2] - points[2][index];
+    return dx * dx + dy * dy + dz * dz;
+  }
+
+  /** Returns the great-circle distance from a position to a marker, by the haversine formula. */
+  private static double haversineKm(double latitude, double longitude, Marker marker) {
+    double phi1 = Math.toRadians(latitude);
+    double phi2 = Math.toRadians(marker.getLatitude());
+    double sinHalfPhi = Math.sin((phi2 - phi1) / 2);
+    double sinHalfLambda = Math.sin(Math.toRadians(marker.getLongitude() - longitude) / 2);
+    double h =
+        sinHalfPhi * sinHalfPhi + Math.cos(phi1) * Math.cos(phi2) * sinHalfLambda * sinHalfLambda;
+    return 2 * EARTH_RADIUS_KM * Math.asin(Math.min(1, Math.sqrt(h)));
+  }
+}
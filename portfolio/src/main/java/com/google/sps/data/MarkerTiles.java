@@ -0,0 +1,121 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The tiles of the map, numbered like slippy-map tiles: at zoom {@code z} the Web Mercator map is
+ * cut into 2^z by 2^z tiles, counted from the top left. Also keeps an LRU of the encoded responses
+ * of recently served tiles, each with the version of the tile it was built at.
+ */
+public final class MarkerTiles {
+  /** The deepest zoom level served as tiles. */
+  public static final int MAX_ZOOM = 22;
+
+  // The latitudes Web Mercator maps to the top and bottom edges of the map.
+  private static final double MAX_LATITUDE = 85.05112878;
+
+  private static final MarkerTiles INSTANCE =
+      new MarkerTiles(Integer.getInteger("markers.tileCacheSize", 2000));
+
+  private final Map<String, EncodedTile> tiles;
+
+  private static final class EncodedTile {
+    private final String version;
+    private final byte[] bytes;
+
+    private EncodedTile(String version, byte[] bytes) {
+      this.version = version;
+      this.bytes = bytes;
+    }
+  }
+
+  private MarkerTiles(int capacity) {
+    this.tiles =
+        new LinkedHashMap<String, EncodedTile>(16, 0.75f, true) {
+          @Override
+          protected boolean removeEldestEntry(Map.Entry<String, EncodedTile> eldest) {
+            return size() > capacity;
+          }
+        };
+  }
+
+  public static MarkerTiles getInstance() {
+    return INSTANCE;
+  }
+
+  /** Returns the encoded tile if it was built at the given version, or null. */
+  public synchronized byte[] get(int zoom, long x, long y, String version) {
+    EncodedTile tile = tiles.get(name(zoom, x, y));
+    return tile != null && tile.version.equals(version) ? tile.bytes : null;
+  }
+
+  /** Keeps the encoded tile, built at the given version. */
+  public synchronized void put(int zoom, long x, long y, String version, byte[] bytes) {
+    tiles.put(name(zoom, x, y), new EncodedTile(version, bytes));
+  }
+
+  /** Drops the encoded tiles holding the position, at every zoom level. */
+  public synchronized void invalidate(double latitude, double longitude) {
+    for (int zoom = 0; zoom <= MAX_ZOOM; zoom++) {
+      tiles.remove(name(zoom, column(longitude, zoom), row(latitude, zoom)));
+    }
+  }
+
+  /** Returns the name of a tile, as in its URL. */
+  public static String name(int zoom, long x, long y) {
+    return zoom + "/" + x + "/" + y;
+  }
+
+  /** Returns the column of the tile holding the longitude at the given zoom. */
+  public static long column(double longitude, int zoom) {
+    return toTile(mercatorX(longitude), zoom);
+  }
+
+  /** Returns the row of the tile holding the latitude at the given zoom. */
+  public static long row(double latitude, int zoom) {
+    return toTile(mercatorY(latitude), zoom);
+  }
+
+  /** Returns the latitude of the top edge of a row of tiles. */
+  public static double rowLatitude(long y, int zoom) {
+    double n = Math.PI * (1 - 2.0 * y / (1L << zoom));
+    return Math.toDegrees(Math.atan(Math.sinh(n)));
+  }
+
+  /** Returns the longitude of the left edge of a column of tiles. */
+  public static double columnLongitude(long x, int zoom) {
+    return 360.0 * x / (1L << zoom) - 180;
+  }
+
+  /** Returns the position of a longitude across the map, from 0 on the left to 1. */
+  static double mercatorX(double longitude) {
+    return (longitude + 180) / 360;
+  }
+
+  /** Returns the position of a latitude down the map, from 0 at the top to 1. */
+  static double mercatorY(double latitude) {
+    double clamped = Math.max(-MAX_LATITUDE, Math.min(MAX_LATITUDE, latitude));
+    double sine = Math.sin(Math.toRadians(clamped));
+    return 0.5 - Math.log((1 + sine) / (1 - sine)) / (4 * Math.PI);
+  }
+
+  private static long toTile(double position, int zoom) {
+    long tiles = 1L << zoom;
+    return Math.max(0, Math.min((long) (position * tiles), tiles - 1));
+  }
+}
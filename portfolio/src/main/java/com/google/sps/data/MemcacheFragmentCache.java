@@ -0,0 +1,75 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.sps.data;
+
+import com.google.appengine.api.memcache.Expiration;
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheService.SetPolicy;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import com.google.appengine.api.utils.SystemProperty;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Fragment cache backed by App Engine Memcache, and so shared by every instance of the app. Each
+ * version of the app uses a namespace of its own, since its fragments may not be built the same
+ * way.
+ */
+public final class MemcacheFragmentCache implements FragmentCache {
+  // Fragments are never invalidated, so this only bounds how long unused ones take up room.
+  private static final int EXPIRATION_SECONDS = 60 * 60;
+
+  private final MemcacheService memcache;
+
+  public MemcacheFragmentCache() {
+    String appVersion = SystemProperty.applicationVersion.get();
+    this.memcache =
+        MemcacheServiceFactory.getMemcacheService(
+            "fragments-" + (appVersion == null ? "local" : appVersion));
+  }
+
+  @Override
+  public Map<String, byte[]> getAll(Collection<String> keys) {
+    Map<String, byte[]> fragments = new HashMap<>();
+    memcache
+        .getAll(keys)
+        .forEach(
+            (key, value) -> {
+              if (value instanceof byte[]) {
+                fragments.put(key, (byte[]) value);
+              }
+            });
+    return fragments;
+  }
+
+  @Override
+  public void put(String key, byte[] value) {
+    memcache.put(key, value, Expiration.byDeltaSeconds(EXPIRATION_SECONDS));
+  }
+
+  @Override
+  public void putAll(Map<String, byte[]> values) {
+    memcache.putAll(values, Expiration.byDeltaSeconds(EXPIRATION_SECONDS));
+  }
+
+  @Override
+  public boolean putIfAbsent(String key, byte[] value) {
+    return memcache.put(
+        key,
+        value,
+        Expiration.byDeltaSeconds(EXPIRATION_SECONDS),
+        SetPolicy.ADD_ONLY_IF_NOT_PRESENT);
+  }
+}
@@ -0,0 +1,75 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import static com.google.sps.data.Constants.MIGRATION_ENTITY_NAME;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.Transaction;
+import java.util.Date;
+
+/**
+ * One-off changes to the data stored in Datastore, run by {@code MigrationServlet} so that user
+ * requests never write on their behalf. A {@code Migration} entity named after each one records
+ * that it completed, and later runs skip it. While one request runs a migration it holds a lease on
+ * that entity, so others do not run it at the same time; if the request fails, a later one runs the
+ * migration again once the lease expires, so every migration must be safe to repeat.
+ */
+public final class Migrations {
+  private static final long LEASE_MILLIS = 10 * 60 * 1000;
+
+  /** A change to the stored data. */
+  @FunctionalInterface
+  public interface Migration {
+    void run(DatastoreService datastore);
+  }
+
+  private Migrations() {}
+
+  /** Runs the given migration, unless it already completed or another instance is running it. */
+  public static void run(DatastoreService datastore, String name, Migration migration) {
+    Key key = KeyFactory.createKey(MIGRATION_ENTITY_NAME, name);
+    Entity state;
+    Transaction transaction = datastore.beginTransaction();
+    try {
+      long now = System.currentTimeMillis();
+      try {
+        state = datastore.get(transaction, key);
+        if (state.hasProperty("completed")
+            || ((Date) state.getProperty("leased-until")).getTime() > now) {
+          return;
+        }
+      } catch (EntityNotFoundException e) {
+        state = new Entity(key);
+      }
+      state.setUnindexedProperty("leased-until", new Date(now + LEASE_MILLIS));
+      datastore.put(transaction, state);
+      transaction.commit();
+    } finally {
+      if (transaction.isActive()) {
+        transaction.rollback();
+      }
+    }
+
+    migration.run(datastore);
+
+    state.setProperty("completed", new Date());
+    datastore.put(state);
+  }
+}
@@ -0,0 +1,235 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import static com.google.sps.data.Constants.ENTITY_NAME;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.datastore.Query.SortDirection;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Write-through cache of the most recent comments of this instance, used by the {@link
+ * DatastoreCommentStore}, in the order of {@code /list-comments}: newest first, then by ascending
+ * id like Datastore breaks ties. Reads never block; writes and refreshes are serialized.
+ *
+ * <p>The cache remembers the {@link CommentsVersion} it matches. Writes made through this instance
+ * keep it up to date, and it is reloaded from the {@link CommentsSnapshot} when another instance
+ * changed the version, or from a query, which also rebuilds the snapshot, when that is behind too.
+ * The version is checked at most once per {@code CHECK_INTERVAL_MILLIS}, so writes made elsewhere
+ * may take that long to show up.
+ */
+final class RecentCommentsCache {
+  static final int CAPACITY = 100;
+
+  private static final long CHECK_INTERVAL_MILLIS = 1000;
+
+  private final int capacity;
+  private volatile State state;
+  private volatile long lastCheckMillis;
+
+  /** The cached comments, with the version they match. Replaced as a whole on reload. */
+  private static final class State {
+    private final ConcurrentSkipListMap<Position, Comment> comments = new ConcurrentSkipListMap<>();
+    private final Map<Long, Position> positions = new ConcurrentHashMap<>();
+
+    // Whether the cache holds every comment in Datastore, rather than only the newest ones.
+    private volatile boolean complete;
+    private volatile long version;
+  }
+
+  /** Where a comment sits in the list: newest first, then by ascending id. */
+  private static final class Position implements Comparable<Position> {
+    private final long publishMillis;
+    private final long id;
+
+    private Position(Comment comment) {
+      this.publishMillis = comment.getPublishTime().getTime();
+      this.id = comment.getId();
+    }
+
+    @Override
+    public int compareTo(Position other) {
+      int byTime = Long.compare(other.publishMillis, publishMillis);
+      return byTime != 0 ? byTime : Long.compare(id, other.id);
+    }
+  }
+
+  RecentCommentsCache(int capacity) {
+    this.capacity = capacity;
+  }
+
+  /**
+   * Returns the newest comments, or null if the cache cannot answer and the caller should query
+   * Datastore instead.
+   *
+   * @param limit The number of comments wanted, at most {@code CAPACITY}.
+   */
+  List<Comment> getNewest(DatastoreService datastore, int limit) {
+    if (limit > capacity) {
+      return null;
+    }
+
+    State current = refreshIfStale(datastore);
+    List<Comment> newest = new ArrayList<>(limit);
+    Iterator<Comment> comments = current.comments.values().iterator();
+    while (newest.size() < limit && comments.hasNext()) {
+      newest.add(comments.next());
+    }
+
+    // Deletions may have left fewer comments than asked for while older ones exist in Datastore.
+    if (newest.size() < limit && !current.complete) {
+      return null;
+    }
+    return newest;
+  }
+
+  /**
+   * Returns the comments version the cache matches, after reloading it if the version in Datastore
+   * moved on. The version changes whenever a comment is added or deleted.
+   */
+  long getVersion(DatastoreService datastore) {
+    return refreshIfStale(datastore).version;
+  }
+
+  /**
+   * Adds comments written to Datastore.
+   *
+   * @param version The comments version committed together with the comments.
+   */
+  synchronized void add(Collection<Comment> comments, long version) {
+    State current = state;
+    if (current == null || current.version != version - 1) {
+      // Another write happened in between; reload on the next read rather than guess.
+      state = null;
+      return;
+    }
+
+    for (Comment comment : comments) {
+      Position position = new Position(comment);
+      current.comments.put(position, comment);
+      current.positions.put(comment.getId(), position);
+    }
+    while (current.comments.size() > capacity) {
+      Position oldest = current.comments.pollLastEntry().getKey();
+      current.positions.remove(oldest.id);
+      current.complete = false;
+    }
+    current.version = version;
+  }
+
+  /**
+   * Removes a comment deleted from Datastore.
+   *
+   * @param version The comments version committed together with the deletion.
+   */
+  synchronized void remove(long id, long version) {
+    State current = state;
+    if (current == null || current.version != version - 1) {
+      state = null;
+      return;
+    }
+
+    Position position = current.positions.remove(id);
+    if (position != null) {
+      current.comments.remove(position);
+    }
+    current.version = version;
+
+    // Once too many comments were deleted, reload so that the first pages still come from memory.
+    if (!current.complete && current.comments.size() < capacity / 2) {
+      state = null;
+    }
+  }
+
+  /** Drops the cached comments, so that they are reloaded from Datastore on the next read. */
+  synchronized void invalidate() {
+    state = null;
+  }
+
+  private State refreshIfStale(DatastoreService datastore) {
+    State current = state;
+    long now = System.currentTimeMillis();
+    if (current != null && now - lastCheckMillis < CHECK_INTERVAL_MILLIS) {
+      return current;
+    }
+
+    long version = CommentsVersion.get(datastore);
+    lastCheckMillis = now;
+    if (current != null && current.version == version) {
+      return current;
+    }
+    return reload(datastore, version);
+  }
+
+  private synchronized State reload(DatastoreService datastore, long version) {
+    State current = state;
+    if (current != null && current.version == version) {
+      return current;
+    }
+
+    State reloaded = new State();
+    CommentsSnapshot snapshot = CommentsSnapshot.get(datastore);
+    if (isUsable(snapshot, version)) {
+      snapshot.getComments().forEach(comment -> put(reloaded, comment));
+      reloaded.complete = snapshot.isComplete();
+    } else {
+      // The version is read before the query, so a concurrent write can only make the cache look
+      // older than it is, and it will be reloaded again on the next check.
+      Query query = new Query(ENTITY_NAME).addSort("publish-time", SortDirection.DESCENDING);
+      List<Entity> entities =
+          datastore.prepare(query).asList(FetchOptions.Builder.withLimit(capacity));
+      List<Comment> comments = new ArrayList<>();
+      for (Entity entity : entities) {
+        Comment comment = Comment.fromEntity(entity);
+        comments.add(comment);
+        put(reloaded, comment);
+      }
+      reloaded.complete = entities.size() < capacity;
+
+      List<Comment> newest = comments.subList(0, Math.min(comments.size(), CommentsSnapshot.SIZE));
+      CommentsSnapshot.rebuild(datastore, newest, newest.size() == comments.size(), version);
+    }
+    reloaded.version = version;
+
+    state = reloaded;
+    return reloaded;
+  }
+
+  /**
+   * Returns whether the snapshot matches the version and, like the cache itself, has not lost too
+   * many comments to deletions.
+   */
+  private static boolean isUsable(CommentsSnapshot snapshot, long version) {
+    return snapshot != null
+        && snapshot.getVersion() == version
+        && (snapshot.isComplete() || snapshot.getComments().size() >= CommentsSnapshot.SIZE / 2);
+  }
+
+  private static void put(State state, Comment comment) {
+    Position position = new Position(comment);
+    state.comments.put(position, comment);
+    state.positions.put(comment.getId(), position);
+  }
+}
@@ -0,0 +1,90 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Coalesces concurrent identical computations: while a value is being computed for a key, every
+ * other caller asking for the same key waits for that computation and gets its result instead of
+ * starting its own. Nothing is kept once the computation is over, so a caller arriving afterwards
+ * computes the value again.
+ *
+ * <p>The key has to name everything the result depends on, since a caller joining an in-flight
+ * computation gets whatever it returns.
+ *
+ * @param <K> The type of the keys.
+ * @param <V> The type of the values, shared between callers and so best immutable.
+ */
+public final class SingleFlight<K, V> {
+  private final ConcurrentMap<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+
+  /** Computes a value, possibly throwing an {@link IOException}. */
+  @FunctionalInterface
+  public interface Loader<V> {
+    V load() throws IOException;
+  }
+
+  /**
+   * Returns the value for the given key, computing it with the loader unless another caller is
+   * already doing so.
+   *
+   * @throws IOException If the computation failed with an {@link IOException}, or this thread was
+   *     interrupted while waiting for it.
+   */
+  public V get(K key, Loader<V> loader) throws IOException {
+    CompletableFuture<V> call = new CompletableFuture<>();
+    CompletableFuture<V> leader = inFlight.putIfAbsent(key, call);
+    if (leader != null) {
+      return await(leader);
+    }
+
+    try {
+      V value = loader.load();
+      call.complete(value);
+      return value;
+    } catch (IOException | RuntimeException | Error e) {
+      call.completeExceptionally(e);
+      throw e;
+    } finally {
+      inFlight.remove(key, call);
+    }
+  }
+
+  /** Waits for the computation of another caller and returns its value. */
+  private static <V> V await(CompletableFuture<V> call) throws IOException {
+    try {
+      return call.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while waiting for a shared computation");
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      // Unchecked exceptions are rethrown as they are, since callers may tell them apart.
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw new IOException(cause);
+    }
+  }
+}
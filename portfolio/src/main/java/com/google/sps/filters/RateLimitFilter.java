@@ -0,0 +1,66 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.sps.filters;
+
+import com.google.appengine.api.users.UserService;
+import com.google.appengine.api.users.UserServiceFactory;
+import java.io.IOException;
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.annotation.WebFilter;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Filter that limits how often each client can add or delete comments and markers, with the buckets
+ * of the {@link RateLimiter}. Logged-in users are told apart by email address and others by IP
+ * address. A client whose bucket is empty gets a {@code 429} with a {@code Retry-After} header and
+ * the request never reaches the servlet.
+ */
+@WebFilter(urlPatterns = {"/data", "/new-comment", "/delete-comment", "/markers"})
+public class RateLimitFilter implements Filter {
+  private static final int SC_TOO_MANY_REQUESTS = 429;
+
+  @Override
+  public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
+      throws IOException, ServletException {
+    HttpServletRequest httpRequest = (HttpServletRequest) request;
+    // Only writes are limited; /markers also lists the markers.
+    if (!"POST".equals(httpRequest.getMethod())) {
+      chain.doFilter(request, response);
+      return;
+    }
+
+    long waitMillis = RateLimiter.getInstance().tryAcquire(getClient(httpRequest));
+    if (waitMillis > 0) {
+      HttpServletResponse httpResponse = (HttpServletResponse) response;
+      httpResponse.setHeader("Retry-After", Long.toString((waitMillis + 999) / 1000));
+      httpResponse.sendError(SC_TOO_MANY_REQUESTS, "Too many requests, try again later");
+      return;
+    }
+    chain.doFilter(request, response);
+  }
+
+  /** Returns the key of the bucket of the client making the request. */
+  private static String getClient(HttpServletRequest request) {
+    UserService userService = UserServiceFactory.getUserService();
+    if (userService.isUserLoggedIn()) {
+      return "user:" + userService.getCurrentUser().getEmail();
+    }
+    return "ip:" + request.getRemoteAddr();
+  }
+}
@@ -0,0 +1,146 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.sps.filters;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Token buckets by client, configured by system properties: each client may make {@code
+ * rateLimit.writesPerMinute} requests a minute (10 by default), in bursts of up to {@code
+ * rateLimit.burst} (5 by default).
+ *
+ * <p>A bucket is a single timestamp updated with compare-and-set: the time at which it will be full
+ * again. Buckets that are full are forgotten, since a new one behaves the same, and at most {@code
+ * rateLimit.maxClients} (10000 by default) are kept; past that, arbitrary buckets are dropped,
+ * which only lets their clients start over.
+ */
+public final class RateLimiter {
+  private static final RateLimiter INSTANCE =
+      new RateLimiter(
+          Integer.getInteger("rateLimit.writesPerMinute", 10),
+          Integer.getInteger("rateLimit.burst", 5),
+          Integer.getInteger("rateLimit.maxClients", 10000));
+
+  private static final long SWEEP_INTERVAL_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+  private final long intervalNanos;
+  private final long burstNanos;
+  private final int maxClients;
+  // When each client's bucket will be full again, on the System.nanoTime clock.
+  private final Map<String, AtomicLong> buckets = new ConcurrentHashMap<>();
+  private final AtomicLong nextSweepNanos;
+
+  private final AtomicLong allowed = new AtomicLong();
+  private final AtomicLong rejected = new AtomicLong();
+  private final AtomicLong evicted = new AtomicLong();
+
+  /**
+   * @param perMinute How many requests a client may make a minute once its burst is spent.
+   * @param burst How many requests a client may make at once.
+   * @param maxClients The most buckets kept.
+   */
+  public RateLimiter(int perMinute, int burst, int maxClients) {
+    this.intervalNanos = TimeUnit.MINUTES.toNanos(1) / perMinute;
+    this.burstNanos = intervalNanos * burst;
+    this.maxClients = maxClients;
+    this.nextSweepNanos = new AtomicLong(System.nanoTime() + SWEEP_INTERVAL_NANOS);
+  }
+
+  public static RateLimiter getInstance() {
+    return INSTANCE;
+  }
+
+  /**
+   * Takes a token from the client's bucket.
+   *
+   * @return 0 if the request may go ahead, or else how many milliseconds the client has to wait for
+   *     a token.
+   */
+  public long tryAcquire(String client) {
+    long now = System.nanoTime();
+    sweepIfDue(now);
+
+    AtomicLong bucket = buckets.get(client);
+    if (bucket == null) {
+      if (buckets.size() >= maxClients) {
+        evict(now);
+      }
+      AtomicLong created = new AtomicLong(now);
+      bucket = buckets.putIfAbsent(client, created);
+      if (bucket == null) {
+        bucket = created;
+      }
+    }
+
+    while (true) {
+      long fullAt = bucket.get();
+      long taken = Math.max(fullAt, now) + intervalNanos;
+      long excess = taken - now - burstNanos;
+      if (excess > 0) {
+        rejected.incrementAndGet();
+        return Math.max(1, TimeUnit.NANOSECONDS.toMillis(excess));
+      }
+      if (bucket.compareAndSet(fullAt, taken)) {
+        allowed.incrementAndGet();
+        return 0;
+      }
+    }
+  }
+
+  /** Returns the number of requests let through. */
+  public long getAllowed() {
+    return allowed.get();
+  }
+
+  /** Returns the number of requests turned away. */
+  public long getRejected() {
+    return rejected.get();
+  }
+
+  /** Returns the number of buckets dropped before they were full, to stay within the bound. */
+  public long getEvicted() {
+    return evicted.get();
+  }
+
+  /** Returns the number of clients whose buckets are kept. */
+  public int getClients() {
+    return buckets.size();
+  }
+
+  private void sweepIfDue(long now) {
+    long due = nextSweepNanos.get();
+    if (now - due >= 0 && nextSweepNanos.compareAndSet(due, now + SWEEP_INTERVAL_NANOS)) {
+      removeFull(now);
+    }
+  }
+
+  /** Makes room for a new bucket, dropping full ones first. */
+  private void evict(long now) {
+    removeFull(now);
+    Iterator<AtomicLong> iterator = buckets.values().iterator();
+    while (buckets.size() >= maxClients && iterator.hasNext()) {
+      iterator.next();
+      iterator.remove();
+      evicted.incrementAndGet();
+    }
+  }
+
+  private void removeFull(long now) {
+    buckets.values().removeIf(bucket -> bucket.get() - now <= 0);
+  }
+}
@@ -0,0 +1,116 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import com.google.appengine.api.ThreadManager;
+import com.google.gson.Gson;
+import com.google.gson.stream.JsonWriter;
+import com.google.sps.data.CommentStore;
+import com.google.sps.data.CommentStoreFactory;
+import com.google.sps.data.FragmentCacheFactory;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import javax.servlet.ServletException;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Servlet that returns everything the page needs when it loads, in one JSON object: the {@code
+ * loginStatus} of {@code /login-status} and the first page of {@code /list-comments} as {@code
+ * comments}. The two are looked up concurrently, and each part is sent as soon as it is ready. The
+ * fragments of the two that may be cached are fetched from the {@link
+ * com.google.sps.data.FragmentCache} together.
+ *
+ * <p>The markers are not included: the map fetches the ones inside its viewport from {@code
+ * /markers} once it is shown, which stays small however many markers there are.
+ */
+@WebServlet("/bootstrap")
+public class BootstrapServlet extends HttpServlet {
+
+  @Override
+  public void doGet(HttpServletRequest request, HttpServletResponse response)
+      throws IOException, ServletException {
+    Gson gson = new Gson();
+    CommentStore store = CommentStoreFactory.getCommentStore();
+    long version = store.getVersion();
+
+    // Everything the page needs that may be cached is looked up in one round trip.
+    String pageKey =
+        ListCommentsServlet.getFragmentKey(version, ListCommentsServlet.DEFAULT_LIMIT, null);
+    String loginKey = LoginStatusServlet.getFragmentKey(request);
+    Map<String, byte[]> cached =
+        FragmentCacheFactory.getFragmentCache().getAll(Arrays.asList(pageKey, loginKey));
+
+    ExecutorService executor = Executors.newSingleThreadExecutor(getThreadFactory());
+    try {
+      Future<byte[]> comments;
+      if (cached.containsKey(pageKey)) {
+        comments = CompletableFuture.completedFuture(cached.get(pageKey));
+      } else {
+        comments =
+            executor.submit(
+                () ->
+                    ListCommentsServlet.loadPage(
+                        store, version, ListCommentsServlet.DEFAULT_LIMIT, null));
+      }
+
+      // The login status only reads the request, so this thread looks it up while it waits.
+      String loginStatus =
+          gson.toJson(LoginStatusServlet.getLoginStatus(request, cached.get(loginKey)));
+
+      response.setContentType("application/json;");
+      JsonWriter writer = new JsonWriter(response.getWriter());
+      writer.beginObject();
+      writer.name("loginStatus").jsonValue(loginStatus);
+      writer.flush();
+      writer.name("comments").jsonValue(new String(comments.get(), StandardCharsets.UTF_8));
+      writer.endObject();
+      writer.flush();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new ServletException(e);
+    } catch (ExecutionException e) {
+      throw new ServletException(e.getCause());
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  /**
+   * Returns a factory of threads that can call the App Engine APIs on behalf of the current
+   * request, or of plain threads when not running on App Engine.
+   */
+  private static ThreadFactory getThreadFactory() {
+    try {
+      ThreadFactory factory = ThreadManager.currentRequestThreadFactory();
+      if (factory != null) {
+        return factory;
+      }
+    } catch (RuntimeException e) {
+      // Not on App Engine.
+    }
+    return Executors.defaultThreadFactory();
+  }
+}
@@ -0,0 +1,178 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import com.google.sps.data.CommentFeed;
+import com.google.sps.data.CommentStoreFactory;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Servlet that pushes the comments added and deleted to the client as server-sent events, so that
+ * it does not need to poll {@code /list-comments}.
+ *
+ * <p>App Engine standard buffers a response until the request ends, and ends requests after 60
+ * seconds, so the stream is served as a long poll: the request ends as soon as one change has been
+ * sent, or after {@code TIMEOUT_MILLIS} without any, and the {@code EventSource} reconnects after
+ * {@code RETRY_MILLIS}. Every response names the version of the comments it is up to date with as
+ * its event id, which the client sends back when it reconnects; a client behind the current version
+ * missed a change meanwhile, or one made through another instance, and is told to reload.
+ *
+ * <p>The events are written with non-blocking I/O, so the request that made a change only queues
+ * them. A client that falls {@code MAX_QUEUED_FRAMES} changes behind is disconnected, and catches
+ * up from {@code /list-comments} when it reconnects.
+ */
+@WebServlet(urlPatterns = "/comments/stream", asyncSupported = true)
+public class CommentStreamServlet extends HttpServlet {
+  // Well under the 60 second deadline of App Engine standard requests.
+  private static final long TIMEOUT_MILLIS = 50 * 1000;
+  private static final long RETRY_MILLIS = 500;
+  private static final int MAX_QUEUED_FRAMES = 64;
+
+  @Override
+  public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    response.setContentType("text/event-stream");
+    response.setCharacterEncoding("UTF-8");
+    response.setHeader("Cache-Control", "no-cache");
+
+    AsyncContext asyncContext = request.startAsync();
+    asyncContext.setTimeout(TIMEOUT_MILLIS);
+
+    StreamSubscriber subscriber = new StreamSubscriber(asyncContext, response.getOutputStream());
+    asyncContext.addListener(subscriber);
+    // Subscribed before the version is read, so no change falls between the two.
+    CommentFeed.getInstance().subscribe(subscriber);
+    long version = CommentStoreFactory.getCommentStore().getVersion();
+    subscriber.queue("retry: " + RETRY_MILLIS + "\nid: " + version + "\n\n");
+
+    String lastEventId = request.getHeader("Last-Event-ID");
+    if (lastEventId != null && !lastEventId.equals(Long.toString(version))) {
+      subscriber.send(CommentFeed.frame("reset", version, "reset"));
+    }
+    response.getOutputStream().setWriteListener(subscriber);
+  }
+
+  /**
+   * A client of the stream, dropped from the feed once its connection ends or it stops keeping up.
+   * The frames wait in a bounded queue until the output can take them without blocking.
+   */
+  private static final class StreamSubscriber
+      implements CommentFeed.Subscriber, AsyncListener, WriteListener {
+    private final AsyncContext asyncContext;
+    private final ServletOutputStream output;
+    private final Queue<byte[]> frames = new ArrayDeque<>();
+    private boolean listening;
+    // Whether a change was queued, after which the request ends once the frames are written.
+    private boolean finishing;
+    private boolean closed;
+
+    private StreamSubscriber(AsyncContext asyncContext, ServletOutputStream output) {
+      this.asyncContext = asyncContext;
+      this.output = output;
+    }
+
+    /** Sends the frames of a change, and then ends the request so that the client receives them. */
+    @Override
+    public synchronized void send(String changeFrames) {
+      finishing = true;
+      queue(changeFrames);
+    }
+
+    private synchronized void queue(String frame) {
+      if (closed) {
+        return;
+      }
+      if (frames.size() == MAX_QUEUED_FRAMES) {
+        close();
+        return;
+      }
+
+      frames.add(frame.getBytes(StandardCharsets.UTF_8));
+      if (listening) {
+        drain();
+      }
+    }
+
+    @Override
+    public synchronized void onWritePossible() {
+      listening = true;
+      drain();
+    }
+
+    /** Writes the queued frames for as long as the output is ready for them. */
+    private void drain() {
+      try {
+        while (!closed && output.isReady()) {
+          byte[] frame = frames.poll();
+          if (frame == null) {
+            output.flush();
+            if (finishing) {
+              close();
+            }
+            return;
+          }
+          output.write(frame);
+        }
+      } catch (IOException e) {
+        close();
+      }
+    }
+
+    private synchronized void close() {
+      if (closed) {
+        return;
+      }
+
+      closed = true;
+      frames.clear();
+      CommentFeed.getInstance().unsubscribe(this);
+      asyncContext.complete();
+    }
+
+    @Override
+    public void onError(Throwable t) {
+      close();
+    }
+
+    @Override
+    public void onComplete(AsyncEvent event) {
+      CommentFeed.getInstance().unsubscribe(this);
+    }
+
+    @Override
+    public void onTimeout(AsyncEvent event) {
+      close();
+    }
+
+    @Override
+    public void onError(AsyncEvent event) {
+      close();
+    }
+
+    @Override
+    public void onStartAsync(AsyncEvent event) {}
+  }
+}
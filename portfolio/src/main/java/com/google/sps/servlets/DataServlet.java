@@ -14,14 +14,19 @@
 
 package com.google.sps.servlets;
 
-import com.google.appengine.api.datastore.DatastoreServiceFactory;
-import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.users.UserService;
+import com.google.appengine.api.users.UserServiceFactory;
+import com.google.sps.data.Comment;
+import com.google.sps.data.CommentStoreFactory;
 import java.io.IOException;
+import java.util.Collections;
 import java.util.Date;
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import javax.ws.rs.BadRequestException;
+import javax.ws.rs.ForbiddenException;
 
 /** Servlet that adds a new comment to the database. */
 @WebServlet("/data")
@@ -29,16 +34,21 @@ public class DataServlet extends HttpServlet {
 
   @Override
   public void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
-    String authorName = request.getParameter("author-name");
+    // The author is the signed-in user, as for /new-comment: a name typed into the form could claim
+    // anyone's comments and counts.
+    UserService userService = UserServiceFactory.getUserService();
+    if (!userService.isUserLoggedIn()) {
+      throw new ForbiddenException("Only signed-in users can comment");
+    }
+    String authorEmail = userService.getCurrentUser().getEmail();
     String commentText = request.getParameter("comment-text");
+    if (commentText == null) {
+      throw new BadRequestException("comment-text is required");
+    }
     Date publishTime = new Date();
 
-    Entity commentEntity = new Entity("Comment");
-    commentEntity.setProperty("author-name", authorName);
-    commentEntity.setProperty("text", commentText);
-    commentEntity.setProperty("publish-time", publishTime);
-
-    DatastoreServiceFactory.getDatastoreService().put(commentEntity);
+    Comment comment = new Comment(authorEmail, commentText, 0, publishTime);
+    CommentStoreFactory.getCommentStore().add(Collections.singletonList(comment));
     response.sendRedirect("/index.html");
   }
 }
@@ -14,12 +14,9 @@
 
 package com.google.sps.servlets;
 
-import static com.google.sps.data.Constants.ENTITY_NAME;
-
-import com.google.appengine.api.datastore.DatastoreServiceFactory;
-import com.google.appengine.api.datastore.Key;
-import com.google.appengine.api.datastore.KeyFactory;
+import com.google.sps.data.CommentStoreFactory;
 import java.io.IOException;
+import java.util.Collections;
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
@@ -32,12 +29,13 @@ public class DeleteCommentServlet extends HttpServlet {
 
   @Override
   public void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    long id;
     try {
-      long id = Long.parseLong(request.getParameter("id"));
-      Key commentEntityKey = KeyFactory.createKey(ENTITY_NAME, id);
-      DatastoreServiceFactory.getDatastoreService().delete(commentEntityKey);
+      id = Long.parseLong(request.getParameter("id"));
     } catch (Exception e) {
       throw new BadRequestException(e.getMessage());
     }
+
+    CommentStoreFactory.getCommentStore().delete(Collections.singletonList(id));
   }
 }
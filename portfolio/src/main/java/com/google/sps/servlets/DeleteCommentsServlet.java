@@ -0,0 +1,69 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import com.google.appengine.api.users.UserService;
+import com.google.appengine.api.users.UserServiceFactory;
+import com.google.gson.JsonObject;
+import com.google.sps.data.CommentStoreFactory;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.ws.rs.BadRequestException;
+import javax.ws.rs.ForbiddenException;
+
+/**
+ * Servlet that deletes many comments at once, for moderators. The ids are given as repeated or
+ * comma-separated {@code id} parameters, and are all deleted in one call to the store.
+ */
+@WebServlet("/delete-comments")
+public class DeleteCommentsServlet extends HttpServlet {
+
+  @Override
+  public void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    UserService userService = UserServiceFactory.getUserService();
+    if (!userService.isUserLoggedIn() || !userService.isUserAdmin()) {
+      throw new ForbiddenException("Only administrators can delete comments in bulk");
+    }
+
+    List<Long> ids = new ArrayList<>();
+    String[] values = request.getParameterValues("id");
+    if (values != null) {
+      try {
+        for (String value : values) {
+          for (String id : value.split(",")) {
+            if (!id.trim().isEmpty()) {
+              ids.add(Long.parseLong(id.trim()));
+            }
+          }
+        }
+      } catch (Exception e) {
+        throw new BadRequestException(e.getMessage());
+      }
+    }
+
+    int deleted = CommentStoreFactory.getCommentStore().delete(ids);
+
+    JsonObject result = new JsonObject();
+    result.addProperty("deleted", deleted);
+
+    response.setContentType("application/json;");
+    response.getWriter().println(result);
+  }
+}
@@ -0,0 +1,120 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import static com.google.sps.data.Constants.MAX_BATCH_SIZE;
+
+import com.google.appengine.api.users.UserService;
+import com.google.appengine.api.users.UserServiceFactory;
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.stream.JsonReader;
+import com.google.sps.data.Comment;
+import com.google.sps.data.CommentStore;
+import com.google.sps.data.CommentStoreFactory;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.ws.rs.BadRequestException;
+import javax.ws.rs.ForbiddenException;
+
+/**
+ * Servlet that imports comments in bulk, for migrations. The body is a JSON array of comments in
+ * the format returned by {@code /list-comments}; their ids are ignored and new ones are assigned.
+ * The body is read as a stream and the comments are stored {@code MAX_BATCH_SIZE} at a time.
+ */
+@WebServlet("/import-comments")
+public class ImportCommentsServlet extends HttpServlet {
+
+  @Override
+  public void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    UserService userService = UserServiceFactory.getUserService();
+    if (!userService.isUserLoggedIn() || !userService.isUserAdmin()) {
+      throw new ForbiddenException("Only administrators can import comments");
+    }
+
+    CommentStore store = CommentStoreFactory.getCommentStore();
+    Gson gson = new Gson();
+    List<Comment> batch = new ArrayList<>();
+    int imported = 0;
+
+    // Storage failures propagate as they are, so only the reader's errors are caught: gson reports
+    // malformed JSON as an IOException (MalformedJsonException) as well as JsonParseException.
+    JsonReader reader = new JsonReader(request.getReader());
+    String error = null;
+    boolean started = false;
+    boolean done = false;
+    while (!done) {
+      try {
+        if (!started) {
+          reader.beginArray();
+          started = true;
+        }
+        done = readBatch(reader, gson, batch);
+      } catch (JsonParseException | IllegalStateException | IOException e) {
+        error = e.getMessage();
+        done = true;
+      }
+
+      // The comments before a malformed one are imported all the same, since the earlier batches
+      // are already stored; the error says how far the import went.
+      if (!batch.isEmpty()) {
+        store.add(batch);
+        imported += batch.size();
+        batch.clear();
+      }
+    }
+    if (error != null) {
+      throw new BadRequestException(error + " (" + imported + " comments imported)");
+    }
+
+    JsonObject result = new JsonObject();
+    result.addProperty("imported", imported);
+
+    response.setContentType("application/json;");
+    response.getWriter().println(result);
+  }
+
+  /**
+   * Reads comments into {@code batch} until it holds {@code MAX_BATCH_SIZE} of them or the array
+   * ends.
+   *
+   * @return Whether the whole array has been read.
+   */
+  private static boolean readBatch(JsonReader reader, Gson gson, List<Comment> batch)
+      throws IOException {
+    while (batch.size() < MAX_BATCH_SIZE) {
+      if (!reader.hasNext()) {
+        reader.endArray();
+        return true;
+      }
+
+      Comment comment = gson.fromJson(reader, Comment.class);
+      if (comment == null || comment.getCommentText() == null) {
+        throw new JsonParseException("Every comment needs a commentText");
+      }
+
+      Date publishTime = comment.getPublishTime() != null ? comment.getPublishTime() : new Date();
+      batch.add(new Comment(comment.getAuthorEmail(), comment.getCommentText(), 0, publishTime));
+    }
+    return false;
+  }
+}
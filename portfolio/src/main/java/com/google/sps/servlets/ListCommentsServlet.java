@@ -14,50 +14,193 @@
 
 package com.google.sps.servlets;
 
-import static com.google.sps.data.Constants.ENTITY_NAME;
-
-import com.google.appengine.api.datastore.DatastoreServiceFactory;
-import com.google.appengine.api.datastore.PreparedQuery;
-import com.google.appengine.api.datastore.Query;
-import com.google.appengine.api.datastore.Query.SortDirection;
 import com.google.gson.Gson;
+import com.google.gson.stream.JsonWriter;
 import com.google.sps.data.Comment;
+import com.google.sps.data.CommentStore;
+import com.google.sps.data.CommentStoreFactory;
+import com.google.sps.data.FragmentCache;
+import com.google.sps.data.FragmentCacheFactory;
+import com.google.sps.data.SingleFlight;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.Date;
-import java.util.List;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import javax.ws.rs.BadRequestException;
 
-/** Servlet that returns the comments list. */
+/**
+ * Servlet that returns one page of the comments list, newest first. The optional {@code limit}
+ * parameter sets the page size and the optional {@code cursor} parameter is the opaque {@code
+ * nextCursor} returned with the previous page.
+ *
+ * <p>Every response carries an {@code ETag} made of the version of the {@link CommentStore} and the
+ * page requested, and a client that sends it back in {@code If-None-Match} gets a {@code 304}
+ * without any comment being read.
+ *
+ * <p>Pages are kept in the {@link FragmentCache} under the version they were read at, and
+ * concurrent requests that miss it share a single read of the store and the JSON it was serialized
+ * to.
+ */
 @WebServlet("/list-comments")
 public class ListCommentsServlet extends HttpServlet {
+  static final int DEFAULT_LIMIT = 20;
+  private static final int MAX_LIMIT = 100;
+  private static final Gson GSON = new Gson();
+  private static final SingleFlight<String, byte[]> PAGES = new SingleFlight<>();
 
   @Override
   public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
-    Query query = new Query(ENTITY_NAME).addSort("publish-time", SortDirection.DESCENDING);
+    CommentStore store = CommentStoreFactory.getCommentStore();
+    int limit = getLimit(request);
+    String cursor = request.getParameter("cursor");
+
+    long version = store.getVersion();
+    String etag = "\"comments-" + version + "-" + limit + "-" + cursorTag(cursor) + "\"";
+    response.setHeader("ETag", etag);
+    // Let the browser keep the page, but make it ask whether it is still current every time.
+    response.setHeader("Cache-Control", "no-cache");
+    if (matchesEtag(request.getHeader("If-None-Match"), etag)) {
+      response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+      return;
+    }
+
+    byte[] page;
+    try {
+      page = getPage(store, version, limit, cursor);
+    } catch (IllegalArgumentException e) {
+      throw new BadRequestException("Invalid cursor");
+    }
+
+    response.setContentType("application/json;charset=UTF-8");
+    response.setContentLength(page.length);
+    response.getOutputStream().write(page);
+  }
+
+  /**
+   * Returns one page of comments as UTF-8 JSON, as written by {@link #writePage}, from the cache if
+   * possible.
+   *
+   * @param version The version of the store the caller has seen. A call never gets a page read at
+   *     an older version, so it does not miss the changes behind that version.
+   * @throws IllegalArgumentException If the cursor is not valid.
+   */
+  static byte[] getPage(CommentStore store, long version, int limit, String cursor)
+      throws IOException {
+    String key = getFragmentKey(version, limit, cursor);
+    byte[] cached = FragmentCacheFactory.getFragmentCache().get(key);
+    return cached != null ? cached : loadPage(store, version, limit, cursor);
+  }
+
+  /**
+   * Reads one page of comments from the store and caches it, for callers that already missed the
+   * cache. Concurrent calls for the same page share one read of the store.
+   *
+   * @throws IllegalArgumentException If the cursor is not valid.
+   */
+  static byte[] loadPage(CommentStore store, long version, int limit, String cursor)
+      throws IOException {
+    String key = getFragmentKey(version, limit, cursor);
+    return PAGES.get(
+        key,
+        () -> {
+          ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+          JsonWriter writer = new JsonWriter(new OutputStreamWriter(bytes, StandardCharsets.UTF_8));
+          writePage(store, limit, cursor, writer);
+          writer.flush();
+
+          byte[] page = bytes.toByteArray();
+          FragmentCacheFactory.getFragmentCache().put(key, page);
+          return page;
+        });
+  }
+
+  /** Returns the key of a page in the {@link FragmentCache}. */
+  static String getFragmentKey(long version, int limit, String cursor) {
+    return "list-comments/" + version + "/" + limit + "/" + (cursor == null ? "" : cursor);
+  }
 
-    PreparedQuery results = DatastoreServiceFactory.getDatastoreService().prepare(query);
+  /**
+   * Writes one page of comments as a JSON object holding the {@code comments} and the {@code
+   * nextCursor}. The comments are written out one by one as they come from the store, so no list of
+   * them or JSON string of the whole page is ever built.
+   *
+   * @throws IllegalArgumentException If the cursor is not valid.
+   */
+  static void writePage(CommentStore store, int limit, String cursor, JsonWriter writer)
+      throws IOException {
+    writer.beginObject();
+    writer.name("comments");
+    writer.beginArray();
 
-    List<Comment> comments = new ArrayList<>();
-    results
-        .asIterable()
-        .forEach(
-            entity -> {
-              String authorEmail = (String) entity.getProperty("author-email");
-              String commentText = (String) entity.getProperty("text");
-              long id = entity.getKey().getId();
-              Date publishTime = (Date) entity.getProperty("publish-time");
+    String nextCursor =
+        store.list(limit, cursor, comment -> GSON.toJson(comment, Comment.class, writer));
+
+    writer.endArray();
+    if (nextCursor != null) {
+      writer.name("nextCursor").value(nextCursor);
+    }
+    writer.endObject();
+  }
 
-              Comment comment = new Comment(authorEmail, commentText, id, publishTime);
-              comments.add(comment);
-            });
+  /**
+   * Returns a short tag naming the cursor, to be used in the ETag. It is a SHA-256 digest, so two
+   * cursors never share a tag and a client is never told that another page is the one it has.
+   */
+  private static String cursorTag(String cursor) {
+    if (cursor == null || cursor.isEmpty()) {
+      return "first";
+    }
+    try {
+      byte[] digest =
+          MessageDigest.getInstance("SHA-256").digest(cursor.getBytes(StandardCharsets.UTF_8));
+      return Base64.getUrlEncoder().withoutPadding().encodeToString(digest);
+    } catch (NoSuchAlgorithmException e) {
+      // Every Java platform supports SHA-256.
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /** Returns whether an If-None-Match header names the given tag. */
+  static boolean matchesEtag(String ifNoneMatch, String etag) {
+    if (ifNoneMatch == null) {
+      return false;
+    }
+
+    for (String candidate : ifNoneMatch.split(",")) {
+      String tag = candidate.trim();
+      // If-None-Match uses the weak comparison, so a weak form of our tag matches too.
+      if (tag.startsWith("W/")) {
+        tag = tag.substring(2);
+      }
+      if (tag.equals("*") || tag.equals(etag)) {
+        return true;
+      }
+    }
+    return false;
+  }
 
-    Gson gson = new Gson();
+  /** Returns the page size requested, capped at {@code MAX_LIMIT}. */
+  private static int getLimit(HttpServletRequest request) {
+    String limit = request.getParameter("limit");
+    if (limit == null || limit.isEmpty()) {
+      return DEFAULT_LIMIT;
+    }
 
-    response.setContentType("application/json;");
-    response.getWriter().println(gson.toJson(comments));
+    try {
+      int value = Integer.parseInt(limit);
+      if (value <= 0) {
+        throw new BadRequestException("limit must be positive");
+      }
+      return Math.min(value, MAX_LIMIT);
+    } catch (NumberFormatException e) {
+      throw new BadRequestException("Invalid limit");
+    }
   }
 }
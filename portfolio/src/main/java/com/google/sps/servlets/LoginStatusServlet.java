@@ -17,30 +17,74 @@ package com.google.sps.servlets;
 import com.google.appengine.api.users.UserService;
 import com.google.appengine.api.users.UserServiceFactory;
 import com.google.gson.Gson;
+import com.google.sps.data.FragmentCache;
+import com.google.sps.data.FragmentCacheFactory;
 import com.google.sps.data.LoginStatus;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+/**
+ * Servlet that returns whether the user is logged in, with the URL to log in or out. Creating these
+ * URLs calls the Users service, so they are kept in the {@link FragmentCache}, per origin since the
+ * URLs embed the host the request was made to.
+ */
 @WebServlet("/login-status")
 public class LoginStatusServlet extends HttpServlet {
+  private static final String LOGIN_URL_KEY = "login-url";
+  private static final String LOGOUT_URL_KEY = "logout-url";
 
   @Override
   public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
     response.setContentType("text/html");
 
-    UserService userService = UserServiceFactory.getUserService();
-    String userEmail = "";
-    if (userService.isUserLoggedIn()) {
-      userEmail = userService.getCurrentUser().getEmail();
-    }
-
-    LoginStatus loginStatus = new LoginStatus(userEmail, userService);
+    LoginStatus loginStatus = getLoginStatus(request);
     Gson gson = new Gson();
 
     response.setContentType("application/json;");
     response.getWriter().println(gson.toJson(loginStatus));
   }
+
+  /** Returns the login status of the user making the current request. */
+  static LoginStatus getLoginStatus(HttpServletRequest request) {
+    return getLoginStatus(
+        request, FragmentCacheFactory.getFragmentCache().get(getFragmentKey(request)));
+  }
+
+  /**
+   * Returns the login status of the user making the current request.
+   *
+   * @param cachedUrl The fragment cached for {@link #getFragmentKey}, or null if there is none.
+   */
+  static LoginStatus getLoginStatus(HttpServletRequest request, byte[] cachedUrl) {
+    UserService userService = UserServiceFactory.getUserService();
+    boolean loggedIn = userService.isUserLoggedIn();
+    String userEmail = loggedIn ? userService.getCurrentUser().getEmail() : "";
+
+    String url;
+    if (cachedUrl != null) {
+      url = new String(cachedUrl, StandardCharsets.UTF_8);
+    } else {
+      url = loggedIn ? userService.createLogoutURL("/") : userService.createLoginURL("/");
+      FragmentCacheFactory.getFragmentCache()
+          .put(getFragmentKey(request), url.getBytes(StandardCharsets.UTF_8));
+    }
+    return new LoginStatus(userEmail, url);
+  }
+
+  /** Returns the key of the URL fragment the current user needs, on the origin of the request. */
+  static String getFragmentKey(HttpServletRequest request) {
+    String key =
+        UserServiceFactory.getUserService().isUserLoggedIn() ? LOGOUT_URL_KEY : LOGIN_URL_KEY;
+    return key
+        + "/"
+        + request.getScheme()
+        + "://"
+        + request.getServerName()
+        + ":"
+        + request.getServerPort();
+  }
 }
@@ -0,0 +1,72 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import com.google.gson.Gson;
+import com.google.sps.data.FragmentCacheFactory;
+import com.google.sps.data.MarkerClusterIndex;
+import java.io.IOException;
+import java.util.List;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.ws.rs.BadRequestException;
+
+/**
+ * Servlet that returns the clusters of markers of the {@link MarkerClusterIndex} for the {@code
+ * zoom} level of the map, each with its position and {@code count}. Like {@code /markers}, it takes
+ * an optional viewport as {@code minLat}, {@code maxLat}, {@code minLng} and {@code maxLng}. Zoom
+ * levels past {@code MarkerClusterIndex.MAX_ZOOM} get the clusters of that level.
+ */
+@WebServlet("/marker-clusters")
+public class MarkerClustersServlet extends HttpServlet {
+
+  @Override
+  public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    int zoom;
+    try {
+      zoom = Integer.parseInt(request.getParameter("zoom"));
+    } catch (NumberFormatException e) {
+      throw new BadRequestException("Invalid zoom");
+    }
+    if (zoom < 0) {
+      throw new BadRequestException("zoom must not be negative");
+    }
+
+    double[] viewport = MarkerServlet.getViewport(request);
+    if (viewport == null) {
+      viewport = new double[] {-90, 90, -180, 180};
+    }
+
+    String generation =
+        MarkerServlet.getGeneration(
+            FragmentCacheFactory.getFragmentCache().get(MarkerServlet.GENERATION_KEY));
+    List<MarkerClusterIndex.Cluster> clusters =
+        MarkerClusterIndex.getInstance()
+            .getClusters(
+                generation,
+                () -> MarkerServlet.getMarkers(generation),
+                Math.min(zoom, MarkerClusterIndex.MAX_ZOOM),
+                viewport[0],
+                viewport[1],
+                viewport[2],
+                viewport[3]);
+    Gson gson = new Gson();
+
+    response.setContentType("application/json;");
+    response.getWriter().println(gson.toJson(clusters));
+  }
+}
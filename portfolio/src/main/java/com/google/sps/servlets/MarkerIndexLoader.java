@@ -0,0 +1,51 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import com.google.sps.data.FragmentCacheFactory;
+import com.google.sps.data.Marker;
+import com.google.sps.data.MarkerClusterIndex;
+import com.google.sps.data.MarkerSpatialIndex;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.servlet.ServletContextEvent;
+import javax.servlet.ServletContextListener;
+import javax.servlet.annotation.WebListener;
+
+/**
+ * Loads the {@link MarkerSpatialIndex} and the {@link MarkerClusterIndex} when the app starts on an
+ * instance, so that the first {@code /markers/nearby}, {@code /marker-clusters} or tile request
+ * does not wait for every marker to be read.
+ */
+@WebListener
+public class MarkerIndexLoader implements ServletContextListener {
+  private static final Logger logger = Logger.getLogger(MarkerIndexLoader.class.getName());
+
+  @Override
+  public void contextInitialized(ServletContextEvent event) {
+    try {
+      String generation =
+          MarkerServlet.getGeneration(
+              FragmentCacheFactory.getFragmentCache().get(MarkerServlet.GENERATION_KEY));
+      List<Marker> markers = MarkerServlet.getMarkers(generation);
+      MarkerSpatialIndex.getInstance().load(generation, () -> markers);
+      MarkerClusterIndex.getInstance().load(generation, () -> markers);
+    } catch (RuntimeException e) {
+      // Datastore or Memcache is unavailable; the indexes are loaded by their first reads instead.
+      logger.log(Level.WARNING, "Could not load the marker indexes", e);
+    }
+  }
+}
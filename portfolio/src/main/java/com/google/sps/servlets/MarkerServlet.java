@@ -14,52 +14,406 @@
 
 package com.google.sps.servlets;
 
+import static com.google.sps.data.Constants.MAX_BATCH_SIZE;
+
+import com.google.appengine.api.datastore.AsyncDatastoreService;
+import com.google.appengine.api.datastore.DatastoreService;
 import com.google.appengine.api.datastore.DatastoreServiceFactory;
 import com.google.appengine.api.datastore.Entity;
-import com.google.appengine.api.datastore.PreparedQuery;
+import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.Key;
 import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.datastore.Query.CompositeFilterOperator;
+import com.google.appengine.api.datastore.Query.FilterOperator;
+import com.google.appengine.api.datastore.Query.FilterPredicate;
 import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+import com.google.sps.data.FragmentCache;
+import com.google.sps.data.FragmentCacheFactory;
+import com.google.sps.data.Geohash;
 import com.google.sps.data.Marker;
+import com.google.sps.data.MarkerClusterIndex;
+import com.google.sps.data.MarkerSpatialIndex;
+import com.google.sps.data.Migrations;
+import com.google.sps.data.SingleFlight;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.UUID;
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import javax.ws.rs.BadRequestException;
 
+/**
+ * Servlet that lists the markers of the map and adds new ones. Concurrent requests for the list
+ * share a single query and the JSON it was serialized to.
+ *
+ * <p>The list is kept in the {@link FragmentCache} under the current generation of the markers, a
+ * random token that is itself a fragment and is replaced whenever a marker is added. A Memcache
+ * value holds at most 1 MB, so the list is cut into chunks of {@code MARKERS_PER_CHUNK} markers,
+ * each a fragment of its own, and the fragment of a generation only names its chunks. When the list
+ * is missing, it is read from Datastore a page at a time, each page becoming a chunk.
+ *
+ * <p>Queries for markers are eventually consistent, so the request adding a marker caches the list
+ * of the new generation itself before it moves the generation on. The list shares every chunk with
+ * the previous one but the last, which is copied with the marker added, so adding a marker rewrites
+ * at most one chunk. The clusters, the nearest markers and the tiles are built from that list too.
+ * Two markers added at the same time may still leave one of them out of the list until it is next
+ * rebuilt.
+ *
+ * <p>With the {@code minLat}, {@code maxLat}, {@code minLng} and {@code maxLng} parameters, only
+ * the markers inside that viewport are listed, found through the {@link Geohash} stored with each
+ * marker. A viewport crossing the antimeridian has {@code minLng} greater than {@code maxLng}.
+ */
 @WebServlet("/markers")
 public class MarkerServlet extends HttpServlet {
+  static final String GENERATION_KEY = "markers/generation";
+
+  private static final String[] VIEWPORT_PARAMETERS = {"minLat", "maxLat", "minLng", "maxLng"};
+  // Sorts after every character of a geohash, so it ends the range of a prefix.
+  private static final String PREFIX_END = "{";
+
+  // Small enough for a chunk to stay far below the 1 MB limit of a Memcache value, and for adding a
+  // marker to rewrite little.
+  private static final int MARKERS_PER_CHUNK = 500;
+  private static final Type MARKER_LIST = new TypeToken<List<Marker>>() {}.getType();
+  private static final Type CHUNK_LIST = new TypeToken<List<String>>() {}.getType();
+
+  private static final SingleFlight<String, List<byte[]>> MARKERS = new SingleFlight<>();
 
   @Override
   public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
-    response.setContentType("application/json");
+    double[] viewport = getViewport(request);
+    byte[] markers;
+    if (viewport == null) {
+      markers = getMarkersJson();
+    } else {
+      List<Marker> inside = getMarkers(viewport[0], viewport[1], viewport[2], viewport[3]);
+      markers = new Gson().toJson(inside).getBytes(StandardCharsets.UTF_8);
+    }
 
-    Query query = new Query("Marker");
-    PreparedQuery results = DatastoreServiceFactory.getDatastoreService().prepare(query);
+    response.setContentType("application/json;charset=UTF-8");
+    response.setContentLength(markers.length);
+    response.getOutputStream().write(markers);
+  }
+
+  /**
+   * Returns every marker of the map as UTF-8 JSON, from the cache if possible. Concurrent calls
+   * that miss the cache share one query.
+   */
+  private static byte[] getMarkersJson() throws IOException {
+    byte[] generation = FragmentCacheFactory.getFragmentCache().get(GENERATION_KEY);
+    // Every chunk is a JSON array; the list is their elements in one array.
+    ByteArrayOutputStream json = new ByteArrayOutputStream();
+    json.write('[');
+    boolean empty = true;
+    for (byte[] chunk : getChunks(getGeneration(generation))) {
+      if (chunk.length <= 2) {
+        continue;
+      }
+      if (!empty) {
+        json.write(',');
+      }
+      json.write(chunk, 1, chunk.length - 2);
+      empty = false;
+    }
+    json.write(']');
+    return json.toByteArray();
+  }
 
-    List<Marker> markers = new ArrayList<>();
-    results
-        .asIterable()
-        .forEach(
-            entity -> {
-              double latitude = (double) entity.getProperty("latitude");
-              double longitude = (double) entity.getProperty("longitude");
-              String content = (String) entity.getProperty("content");
+  /**
+   * Returns the markers listed under the given generation, which include every marker added
+   * explicitly to its list.
+   */
+  static List<Marker> getMarkers(String generation) {
+    try {
+      Gson gson = new Gson();
+      List<Marker> markers = new ArrayList<>();
+      for (byte[] chunk : getChunks(generation)) {
+        List<Marker> chunkMarkers =
+            gson.fromJson(new String(chunk, StandardCharsets.UTF_8), MARKER_LIST);
+        markers.addAll(chunkMarkers);
+      }
+      return markers;
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
 
-              Marker marker = new Marker(latitude, longitude, content);
-              markers.add(marker);
-            });
+  /** Returns the chunks of the list of a generation, as UTF-8 JSON arrays of markers. */
+  private static List<byte[]> getChunks(String generation) throws IOException {
+    FragmentCache cache = FragmentCacheFactory.getFragmentCache();
+    String key = getListKey(generation);
+    List<byte[]> chunks = getCachedChunks(cache, cache.get(key));
+    if (chunks != null) {
+      return chunks;
+    }
+    return MARKERS.get(key, () -> loadChunks(cache, key));
+  }
 
+  /**
+   * Returns the chunks named by the cached list, or null if the list or any of its chunks is not
+   * cached.
+   */
+  private static List<byte[]> getCachedChunks(FragmentCache cache, byte[] list) {
+    if (list == null) {
+      return null;
+    }
+    List<String> chunkKeys = parseChunkKeys(list);
+    Map<String, byte[]> cached = cache.getAll(chunkKeys);
+    List<byte[]> chunks = new ArrayList<>();
+    for (String chunkKey : chunkKeys) {
+      byte[] chunk = cached.get(chunkKey);
+      if (chunk == null) {
+        return null;
+      }
+      chunks.add(chunk);
+    }
+    return chunks;
+  }
+
+  /**
+   * Reads every marker from Datastore a page at a time and caches each page as a chunk, then the
+   * list naming the chunks under the given key. The list always has at least one chunk, for new
+   * markers to be added to.
+   */
+  private static List<byte[]> loadChunks(FragmentCache cache, String listKey) {
     Gson gson = new Gson();
+    List<String> chunkKeys = new ArrayList<>();
+    List<byte[]> chunks = new ArrayList<>();
+    List<Marker> page = new ArrayList<>();
+    Query query = new Query("Marker");
+    for (Entity entity :
+        DatastoreServiceFactory.getDatastoreService()
+            .prepare(query)
+            .asIterable(FetchOptions.Builder.withChunkSize(MARKERS_PER_CHUNK))) {
+      page.add(toMarker(entity));
+      if (page.size() == MARKERS_PER_CHUNK) {
+        chunks.add(putChunk(cache, chunkKeys, gson, page));
+        page.clear();
+      }
+    }
+    if (!page.isEmpty() || chunks.isEmpty()) {
+      chunks.add(putChunk(cache, chunkKeys, gson, page));
+    }
+
+    // The chunks are cached before the list, so no reader gets the list without them.
+    cache.put(listKey, gson.toJson(chunkKeys).getBytes(StandardCharsets.UTF_8));
+    return chunks;
+  }
+
+  /** Caches a chunk under a new key, which is added to the keys given. */
+  private static byte[] putChunk(
+      FragmentCache cache, List<String> chunkKeys, Gson gson, List<Marker> markers) {
+    String chunkKey = "markers/chunk/" + UUID.randomUUID();
+    byte[] chunk = gson.toJson(markers).getBytes(StandardCharsets.UTF_8);
+    cache.put(chunkKey, chunk);
+    chunkKeys.add(chunkKey);
+    return chunk;
+  }
+
+  private static List<String> parseChunkKeys(byte[] list) {
+    return new Gson().fromJson(new String(list, StandardCharsets.UTF_8), CHUNK_LIST);
+  }
+
+  /**
+   * Returns the current generation of the markers.
+   *
+   * @param cached The fragment cached for {@code GENERATION_KEY}, or null if there is none.
+   */
+  static String getGeneration(byte[] cached) {
+    return getToken(GENERATION_KEY, cached);
+  }
+
+  /**
+   * Returns the random token cached under the key, such as a generation, setting a new one if there
+   * is none.
+   *
+   * @param cached The fragment cached for the key, or null if there is none.
+   */
+  static String getToken(String key, byte[] cached) {
+    byte[] token = cached;
+    if (token == null) {
+      // The token was evicted or never set; start a new one unless another request just did.
+      token = newGeneration();
+      FragmentCache cache = FragmentCacheFactory.getFragmentCache();
+      if (!cache.putIfAbsent(key, token)) {
+        byte[] current = cache.get(key);
+        if (current != null) {
+          token = current;
+        }
+      }
+    }
+    return new String(token, StandardCharsets.UTF_8);
+  }
+
+  private static String getListKey(String generation) {
+    return "markers/" + generation;
+  }
 
-    response.setContentType("application/json;");
-    response.getWriter().println(gson.toJson(markers));
+  private static byte[] newGeneration() {
+    return UUID.randomUUID().toString().getBytes(StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Gives the markers stored before geohashes were theirs, so that viewport queries find them. Run
+   * once by {@link Migrations}, {@code MAX_BATCH_SIZE} markers per put. Markers are never changed
+   * or deleted, so rewriting them outside a transaction loses nothing.
+   */
+  static void backfillGeohashes(DatastoreService datastore) {
+    List<Entity> missingGeohash = new ArrayList<>();
+    Query query = new Query("Marker");
+    for (Entity entity :
+        datastore.prepare(query).asIterable(FetchOptions.Builder.withChunkSize(MAX_BATCH_SIZE))) {
+      if (entity.hasProperty("geohash")) {
+        continue;
+      }
+      setGeohash(entity);
+      missingGeohash.add(entity);
+      if (missingGeohash.size() == MAX_BATCH_SIZE) {
+        datastore.put(missingGeohash);
+        missingGeohash.clear();
+      }
+    }
+    if (!missingGeohash.isEmpty()) {
+      datastore.put(missingGeohash);
+    }
+  }
+
+  /**
+   * Returns the markers inside a viewport, with one geohash range scan per cell covering it. The
+   * scans run concurrently.
+   */
+  static List<Marker> getMarkers(double minLat, double maxLat, double minLng, double maxLng) {
+    return new ArrayList<>(getMarkersByKey(minLat, maxLat, minLng, maxLng).values());
+  }
+
+  /** Returns the markers inside a viewport by the keys of their entities. */
+  static Map<Key, Marker> getMarkersByKey(
+      double minLat, double maxLat, double minLng, double maxLng) {
+    List<String> prefixes = new ArrayList<>();
+    if (minLng <= maxLng) {
+      prefixes.addAll(Geohash.cover(minLat, maxLat, minLng, maxLng));
+    } else {
+      prefixes.addAll(Geohash.cover(minLat, maxLat, minLng, 180));
+      prefixes.addAll(Geohash.cover(minLat, maxLat, -180, maxLng));
+    }
+
+    AsyncDatastoreService datastore = DatastoreServiceFactory.getAsyncDatastoreService();
+    List<Iterable<Entity>> scans = new ArrayList<>();
+    for (String prefix : prefixes) {
+      Query query = new Query("Marker");
+      if (!prefix.isEmpty()) {
+        query.setFilter(
+            CompositeFilterOperator.and(
+                new FilterPredicate("geohash", FilterOperator.GREATER_THAN_OR_EQUAL, prefix),
+                new FilterPredicate("geohash", FilterOperator.LESS_THAN, prefix + PREFIX_END)));
+      }
+      // Starts fetching the first batch of every scan before any of them is read.
+      scans.add(datastore.prepare(query).asList(FetchOptions.Builder.withDefaults()));
+    }
+
+    // Covering cells of the two halves of a viewport crossing the antimeridian may overlap.
+    Map<Key, Marker> markers = new HashMap<>();
+    for (Iterable<Entity> scan : scans) {
+      for (Entity entity : scan) {
+        double latitude = (double) entity.getProperty("latitude");
+        double longitude = (double) entity.getProperty("longitude");
+        boolean insideLongitudes =
+            minLng <= maxLng
+                ? longitude >= minLng && longitude <= maxLng
+                : longitude >= minLng || longitude <= maxLng;
+        if (latitude >= minLat && latitude <= maxLat && insideLongitudes) {
+          markers.put(entity.getKey(), toMarker(entity));
+        }
+      }
+    }
+    return markers;
+  }
+
+  /**
+   * Returns the viewport of the request as {minLat, maxLat, minLng, maxLng}, or null if it has
+   * none.
+   */
+  static double[] getViewport(HttpServletRequest request) {
+    double[] viewport = new double[VIEWPORT_PARAMETERS.length];
+    int given = 0;
+    for (int i = 0; i < VIEWPORT_PARAMETERS.length; i++) {
+      String value = request.getParameter(VIEWPORT_PARAMETERS[i]);
+      if (value == null || value.isEmpty()) {
+        continue;
+      }
+      try {
+        viewport[i] = Double.parseDouble(value);
+      } catch (NumberFormatException e) {
+        throw new BadRequestException("Invalid " + VIEWPORT_PARAMETERS[i]);
+      }
+      given++;
+    }
+
+    if (given == 0) {
+      return null;
+    }
+    if (given < VIEWPORT_PARAMETERS.length) {
+      throw new BadRequestException("minLat, maxLat, minLng and maxLng go together");
+    }
+    if (viewport[0] < -90 || viewport[1] > 90 || viewport[0] > viewport[1]) {
+      throw new BadRequestException("Invalid latitudes");
+    }
+    if (viewport[2] < -180 || viewport[2] > 180 || viewport[3] < -180 || viewport[3] > 180) {
+      throw new BadRequestException("Invalid longitudes");
+    }
+    return viewport;
+  }
+
+  private static Marker toMarker(Entity entity) {
+    double latitude = (double) entity.getProperty("latitude");
+    double longitude = (double) entity.getProperty("longitude");
+    String content = (String) entity.getProperty("content");
+    return new Marker(latitude, longitude, content);
+  }
+
+  private static void setGeohash(Entity entity) {
+    double latitude = (double) entity.getProperty("latitude");
+    double longitude = (double) entity.getProperty("longitude");
+    entity.setProperty("geohash", Geohash.encode(latitude, longitude, Geohash.PRECISION));
+  }
+
+  /**
+   * Returns the list of chunks with the marker added to a copy of the last one, or a new one if it
+   * is full, or null if that chunk is no longer cached.
+   */
+  private static byte[] addToList(FragmentCache cache, Gson gson, byte[] list, Marker marker) {
+    List<String> chunkKeys = parseChunkKeys(list);
+    String lastKey = chunkKeys.get(chunkKeys.size() - 1);
+    byte[] last = cache.get(lastKey);
+    if (last == null) {
+      return null;
+    }
+
+    List<Marker> markers = gson.fromJson(new String(last, StandardCharsets.UTF_8), MARKER_LIST);
+    if (markers.size() < MARKERS_PER_CHUNK) {
+      // Chunks are shared with the lists of older generations, so the last one is not changed.
+      chunkKeys.remove(chunkKeys.size() - 1);
+    } else {
+      markers.clear();
+    }
+    markers.add(marker);
+    putChunk(cache, chunkKeys, gson, markers);
+    return gson.toJson(chunkKeys).getBytes(StandardCharsets.UTF_8);
   }
 
   @Override
   public void doPost(HttpServletRequest request, HttpServletResponse response) {
+    Gson gson = new Gson();
     try {
       double latitude = Double.parseDouble(request.getParameter("latitude"));
       double longitude = Double.parseDouble(request.getParameter("longitude"));
@@ -69,8 +423,34 @@ public class MarkerServlet extends HttpServlet {
       markerEntity.setProperty("latitude", latitude);
       markerEntity.setProperty("longitude", longitude);
       markerEntity.setProperty("content", content);
+      setGeohash(markerEntity);
 
+      FragmentCache cache = FragmentCacheFactory.getFragmentCache();
+      String previousGeneration = getGeneration(cache.get(GENERATION_KEY));
+      // Read before the marker is stored, so the list cannot hold it already. Only the names of the
+      // chunks are read, unless the list must be loaded.
+      byte[] previousList = cache.get(getListKey(previousGeneration));
+      if (previousList == null) {
+        getChunks(previousGeneration);
+        previousList = cache.get(getListKey(previousGeneration));
+      }
       DatastoreServiceFactory.getDatastoreService().put(markerEntity);
+
+      // A query right after the put may not find the marker yet, so it is added to the list of the
+      // new generation explicitly, and that list is cached before the generation moves on.
+      Marker marker = toMarker(markerEntity);
+      byte[] generation = newGeneration();
+      String newGeneration = new String(generation, StandardCharsets.UTF_8);
+      byte[] list = previousList == null ? null : addToList(cache, gson, previousList, marker);
+      if (list != null) {
+        cache.put(getListKey(newGeneration), list);
+      }
+      // Without a list, the first read of the new generation lists the markers again.
+      cache.put(GENERATION_KEY, generation);
+
+      MarkerTileServlet.invalidateTiles(markerEntity.getKey(), marker);
+      MarkerClusterIndex.getInstance().add(marker, previousGeneration, newGeneration);
+      MarkerSpatialIndex.getInstance().add(marker, previousGeneration, newGeneration);
     } catch (Exception e) {
       throw new BadRequestException(e.getMessage());
     }
@@ -0,0 +1,208 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import com.google.appengine.api.datastore.Key;
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import com.google.sps.data.FragmentCache;
+import com.google.sps.data.FragmentCacheFactory;
+import com.google.sps.data.Marker;
+import com.google.sps.data.MarkerClusterIndex;
+import com.google.sps.data.MarkerTiles;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.ws.rs.BadRequestException;
+
+/**
+ * Servlet that returns one slippy-map tile of markers at {@code /markers/{z}/{x}/{y}}: the {@code
+ * clusters} of the {@link MarkerClusterIndex} up to its deepest zoom level, and the {@code markers}
+ * themselves past it.
+ *
+ * <p>Every tile has a version of its own, a random token in the {@link FragmentCache} that is
+ * replaced only when a marker is added inside the tile. Responses carry it in their {@code ETag}
+ * and are marked {@code no-cache}: the URL of a tile never changes, so browsers and proxies keep
+ * the tile but ask again every time, and are answered with a 304 until a new marker lands in it.
+ * The encoded tiles of this instance are kept in the LRU of {@link MarkerTiles}.
+ *
+ * <p>The markers of the tiles past the deepest zoom level of the clusters come from an eventually
+ * consistent viewport query, so the request adding a marker encodes those tiles itself, with the
+ * marker added explicitly, and caches them in the {@link FragmentCache} under their new versions.
+ */
+@WebServlet("/markers/*")
+public class MarkerTileServlet extends HttpServlet {
+  @Override
+  public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    long[] tile = parseTile(request.getPathInfo());
+    int zoom = (int) tile[0];
+    long x = tile[1];
+    long y = tile[2];
+
+    // The version of the tile and the generation of the clusters are looked up together.
+    String versionKey = getVersionKey(zoom, x, y);
+    Map<String, byte[]> cached =
+        FragmentCacheFactory.getFragmentCache()
+            .getAll(Arrays.asList(versionKey, MarkerServlet.GENERATION_KEY));
+    String version = MarkerServlet.getToken(versionKey, cached.get(versionKey));
+
+    String etag = "\"tile-" + zoom + "-" + x + "-" + y + "-" + version + "\"";
+    response.setHeader("ETag", etag);
+    response.setHeader("Cache-Control", "no-cache");
+    if (ListCommentsServlet.matchesEtag(request.getHeader("If-None-Match"), etag)) {
+      response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+      return;
+    }
+
+    MarkerTiles tiles = MarkerTiles.getInstance();
+    byte[] encoded = tiles.get(zoom, x, y, version);
+    if (encoded == null) {
+      if (zoom > MarkerClusterIndex.MAX_ZOOM) {
+        // Encoded by the request whose new marker gave the tile this version.
+        encoded = FragmentCacheFactory.getFragmentCache().get(getTileKey(versionKey, version));
+        if (encoded == null) {
+          encoded = encodeMarkers(zoom, x, y, getTileMarkers(zoom, x, y));
+        }
+        tiles.put(zoom, x, y, version, encoded);
+      } else {
+        String generation = MarkerServlet.getGeneration(cached.get(MarkerServlet.GENERATION_KEY));
+        MarkerClusterIndex.TileClusters clusters =
+            MarkerClusterIndex.getInstance()
+                .getClusters(generation, () -> MarkerServlet.getMarkers(generation), zoom, x, y);
+        encoded = encodeClusters(clusters.getClusters());
+        // Clusters served while the index is rebuilt may miss the marker that gave the tile this
+        // version, so they are not kept under it.
+        if (clusters.isCurrent()) {
+          tiles.put(zoom, x, y, version, encoded);
+        }
+      }
+    }
+
+    response.setContentType("application/json;charset=UTF-8");
+    response.setContentLength(encoded.length);
+    response.getOutputStream().write(encoded);
+  }
+
+  /**
+   * Gives a new version to the tiles holding a new marker, at every zoom level, and drops them from
+   * the LRU of this instance. Called once the marker is stored, and after the generation of the
+   * markers moved on.
+   *
+   * @param markerKey The key of the entity of the marker.
+   */
+  static void invalidateTiles(Key markerKey, Marker marker) {
+    double latitude = marker.getLatitude();
+    double longitude = marker.getLongitude();
+    Map<String, byte[]> versions = new HashMap<>();
+    Map<String, byte[]> encodedTiles = new HashMap<>();
+    for (int zoom = 0; zoom <= MarkerTiles.MAX_ZOOM; zoom++) {
+      long x = MarkerTiles.column(longitude, zoom);
+      long y = MarkerTiles.row(latitude, zoom);
+      String versionKey = getVersionKey(zoom, x, y);
+      String version = UUID.randomUUID().toString();
+      versions.put(versionKey, version.getBytes(StandardCharsets.UTF_8));
+      if (zoom > MarkerClusterIndex.MAX_ZOOM) {
+        Map<Key, Marker> markers = getTileMarkers(zoom, x, y);
+        markers.put(markerKey, marker);
+        encodedTiles.put(getTileKey(versionKey, version), encodeMarkers(zoom, x, y, markers));
+      }
+    }
+
+    // The tiles are cached before their versions, so no reader gets a version without its tile.
+    FragmentCache cache = FragmentCacheFactory.getFragmentCache();
+    cache.putAll(encodedTiles);
+    cache.putAll(versions);
+    MarkerTiles.getInstance().invalidate(latitude, longitude);
+  }
+
+  private static byte[] encodeClusters(List<MarkerClusterIndex.Cluster> clusters) {
+    Gson gson = new Gson();
+    JsonObject encoded = new JsonObject();
+    encoded.add("clusters", gson.toJsonTree(clusters));
+    return gson.toJson(encoded).getBytes(StandardCharsets.UTF_8);
+  }
+
+  /** Returns the markers of a tile past the deepest zoom level of the clusters, by their keys. */
+  private static Map<Key, Marker> getTileMarkers(int zoom, long x, long y) {
+    // The top and bottom rows also hold the markers beyond the latitudes the map shows.
+    double minLat = y == (1L << zoom) - 1 ? -90 : MarkerTiles.rowLatitude(y + 1, zoom);
+    double maxLat = y == 0 ? 90 : MarkerTiles.rowLatitude(y, zoom);
+    Map<Key, Marker> markers =
+        MarkerServlet.getMarkersByKey(
+            minLat,
+            maxLat,
+            MarkerTiles.columnLongitude(x, zoom),
+            MarkerTiles.columnLongitude(x + 1, zoom));
+    // Markers on an edge are found by both tiles; keep each in the one it is invalidated in.
+    markers
+        .values()
+        .removeIf(
+            marker ->
+                MarkerTiles.column(marker.getLongitude(), zoom) != x
+                    || MarkerTiles.row(marker.getLatitude(), zoom) != y);
+    return markers;
+  }
+
+  private static byte[] encodeMarkers(int zoom, long x, long y, Map<Key, Marker> markers) {
+    Gson gson = new Gson();
+    JsonObject encoded = new JsonObject();
+    encoded.add("markers", gson.toJsonTree(new ArrayList<>(markers.values())));
+    return gson.toJson(encoded).getBytes(StandardCharsets.UTF_8);
+  }
+
+  /** Returns the zoom, column and row of the tile named by the path. */
+  private static long[] parseTile(String path) {
+    String[] parts = path == null ? new String[0] : path.split("/");
+    // The path starts with a slash, so the first part is empty.
+    if (parts.length != 4 || !parts[0].isEmpty()) {
+      throw new BadRequestException("Tiles are at /markers/{z}/{x}/{y}");
+    }
+
+    long zoom;
+    long x;
+    long y;
+    try {
+      zoom = Long.parseLong(parts[1]);
+      x = Long.parseLong(parts[2]);
+      y = Long.parseLong(parts[3]);
+    } catch (NumberFormatException e) {
+      throw new BadRequestException("Invalid tile");
+    }
+    if (zoom < 0 || zoom > MarkerTiles.MAX_ZOOM) {
+      throw new BadRequestException("zoom must be between 0 and " + MarkerTiles.MAX_ZOOM);
+    }
+    if (x < 0 || y < 0 || x >= 1L << zoom || y >= 1L << zoom) {
+      throw new BadRequestException("No such tile at this zoom");
+    }
+    return new long[] {zoom, x, y};
+  }
+
+  private static String getVersionKey(int zoom, long x, long y) {
+    return "marker-tile/" + MarkerTiles.name(zoom, x, y);
+  }
+
+  private static String getTileKey(String versionKey, String version) {
+    return versionKey + "/" + version;
+  }
+}
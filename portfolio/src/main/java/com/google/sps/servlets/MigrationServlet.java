@@ -0,0 +1,60 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.users.UserService;
+import com.google.appengine.api.users.UserServiceFactory;
+import com.google.sps.data.CommentStoreFactory;
+import com.google.sps.data.DatastoreCommentStore;
+import com.google.sps.data.Migrations;
+import java.io.IOException;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.ws.rs.ForbiddenException;
+
+/**
+ * Servlet that runs the pending {@link Migrations}, called by the cron job of {@code cron.xml} or
+ * by an administrator. The migrations read whole kinds, so they run here rather than when an
+ * instance starts, where they would delay every new instance; cron requests may run for up to 10
+ * minutes.
+ */
+@WebServlet("/admin/migrations")
+public class MigrationServlet extends HttpServlet {
+
+  @Override
+  public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    // App Engine strips this header from requests that do not come from its cron service.
+    boolean fromCron = "true".equals(request.getHeader("X-Appengine-Cron"));
+    UserService userService = UserServiceFactory.getUserService();
+    if (!fromCron && (!userService.isUserLoggedIn() || !userService.isUserAdmin())) {
+      throw new ForbiddenException("Only administrators can run the migrations");
+    }
+
+    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+    if (CommentStoreFactory.getCommentStore() instanceof DatastoreCommentStore) {
+      Migrations.run(
+          datastore, "sanitize-legacy-comments", DatastoreCommentStore::sanitizeLegacyComments);
+      Migrations.run(datastore, "recount-comment-counters", DatastoreCommentStore::recountComments);
+    }
+    Migrations.run(datastore, "backfill-marker-geohashes", MarkerServlet::backfillGeohashes);
+
+    response.setContentType("text/plain;");
+    response.getWriter().println("Migrations done");
+  }
+}
@@ -0,0 +1,93 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import com.google.gson.Gson;
+import com.google.sps.data.FragmentCacheFactory;
+import com.google.sps.data.MarkerSpatialIndex;
+import java.io.IOException;
+import java.util.List;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.ws.rs.BadRequestException;
+
+/**
+ * Servlet that returns the {@code k} markers closest to the position given by {@code lat} and
+ * {@code lng}, closest first, each with its {@code distanceKm}. The optional {@code radiusKm}
+ * parameter leaves out the markers farther than that. The markers are found in the {@link
+ * MarkerSpatialIndex}.
+ */
+@WebServlet("/markers/nearby")
+public class NearbyMarkersServlet extends HttpServlet {
+  private static final int DEFAULT_K = 10;
+  private static final int MAX_K = 100;
+
+  @Override
+  public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    double latitude = getDoubleParameter(request, "lat", Double.NaN);
+    double longitude = getDoubleParameter(request, "lng", Double.NaN);
+    double radiusKm = getDoubleParameter(request, "radiusKm", Double.POSITIVE_INFINITY);
+    if (!(latitude >= -90 && latitude <= 90 && longitude >= -180 && longitude <= 180)) {
+      throw new BadRequestException("lat and lng must be a valid position");
+    }
+    if (!(radiusKm > 0)) {
+      throw new BadRequestException("radiusKm must be positive");
+    }
+
+    int k;
+    try {
+      String value = request.getParameter("k");
+      k = value == null || value.isEmpty() ? DEFAULT_K : Integer.parseInt(value);
+    } catch (NumberFormatException e) {
+      throw new BadRequestException("Invalid k");
+    }
+    if (k <= 0) {
+      throw new BadRequestException("k must be positive");
+    }
+
+    String generation =
+        MarkerServlet.getGeneration(
+            FragmentCacheFactory.getFragmentCache().get(MarkerServlet.GENERATION_KEY));
+    List<MarkerSpatialIndex.Neighbor> nearest =
+        MarkerSpatialIndex.getInstance()
+            .getNearest(
+                generation,
+                () -> MarkerServlet.getMarkers(generation),
+                latitude,
+                longitude,
+                Math.min(k, MAX_K),
+                radiusKm);
+    Gson gson = new Gson();
+
+    response.setContentType("application/json;");
+    response.getWriter().println(gson.toJson(nearest));
+  }
+
+  private static double getDoubleParameter(
+      HttpServletRequest request, String name, double defaultValue) {
+    String value = request.getParameter(name);
+    if (value == null || value.isEmpty()) {
+      return defaultValue;
+    }
+
+    try {
+      return Double.parseDouble(value);
+    } catch (NumberFormatException e) {
+      throw new BadRequestException("Invalid " + name);
+    }
+  }
+}
@@ -14,17 +14,17 @@
 
 package com.google.sps.servlets;
 
-import static com.google.sps.data.Constants.ENTITY_NAME;
-
-import com.google.appengine.api.datastore.DatastoreServiceFactory;
-import com.google.appengine.api.datastore.Entity;
 import com.google.appengine.api.users.UserServiceFactory;
+import com.google.sps.data.Comment;
+import com.google.sps.data.CommentStoreFactory;
 import java.io.IOException;
+import java.util.Collections;
 import java.util.Date;
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import javax.ws.rs.BadRequestException;
 
 /** Servlet that adds a new comment to the database. */
 @WebServlet("/new-comment")
@@ -34,13 +34,13 @@ public class NewCommentServlet extends HttpServlet {
   public void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
     String authorEmail = UserServiceFactory.getUserService().getCurrentUser().getEmail();
     String commentText = request.getParameter("comment-text");
+    if (commentText == null) {
+      throw new BadRequestException("comment-text is required");
+    }
     Date publishTime = new Date();
 
-    Entity commentEntity = new Entity(ENTITY_NAME);
-    commentEntity.setProperty("author-email", authorEmail);
-    commentEntity.setProperty("text", commentText);
-    commentEntity.setProperty("publish-time", publishTime);
-
-    DatastoreServiceFactory.getDatastoreService().put(commentEntity);
+    // Returns once the comment is stored, possibly together with others sent at the same time.
+    Comment comment = new Comment(authorEmail, commentText, 0, publishTime);
+    CommentStoreFactory.getCommentStore().add(Collections.singletonList(comment));
   }
 }
@@ -0,0 +1,52 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.sps.servlets;
+
+import com.google.appengine.api.users.UserService;
+import com.google.appengine.api.users.UserServiceFactory;
+import com.google.gson.JsonObject;
+import com.google.sps.filters.RateLimiter;
+import java.io.IOException;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.ws.rs.ForbiddenException;
+
+/**
+ * Servlet that returns the counters of the {@link RateLimiter} of this instance, for monitoring:
+ * the requests {@code allowed} and {@code rejected}, the {@code clients} tracked and the buckets
+ * {@code evicted} to stay within the bound.
+ */
+@WebServlet("/rate-limit-stats")
+public class RateLimitStatsServlet extends HttpServlet {
+
+  @Override
+  public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    UserService userService = UserServiceFactory.getUserService();
+    if (!userService.isUserLoggedIn() || !userService.isUserAdmin()) {
+      throw new ForbiddenException("Only administrators can see the rate limiter counters");
+    }
+
+    RateLimiter limiter = RateLimiter.getInstance();
+    JsonObject stats = new JsonObject();
+    stats.addProperty("allowed", limiter.getAllowed());
+    stats.addProperty("rejected", limiter.getRejected());
+    stats.addProperty("clients", limiter.getClients());
+    stats.addProperty("evicted", limiter.getEvicted());
+
+    response.setContentType("application/json;");
+    response.getWriter().println(stats);
+  }
+}
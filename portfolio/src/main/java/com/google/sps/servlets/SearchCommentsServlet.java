@@ -0,0 +1,79 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import com.google.sps.data.CommentSearchIndex;
+import com.google.sps.data.CommentStoreFactory;
+import java.io.IOException;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.ws.rs.BadRequestException;
+
+/**
+ * Servlet that searches the comment texts for the words of the {@code q} parameter, best match
+ * first. The optional {@code limit} and {@code offset} parameters select the page; the response
+ * holds the comments of the page, the total number of matches and the offset of the next page.
+ */
+@WebServlet("/search-comments")
+public class SearchCommentsServlet extends HttpServlet {
+  private static final int DEFAULT_LIMIT = 20;
+  private static final int MAX_LIMIT = 100;
+
+  @Override
+  public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    String query = request.getParameter("q");
+    if (query == null || query.trim().isEmpty()) {
+      throw new BadRequestException("Missing q parameter");
+    }
+
+    int limit = Math.min(getIntParameter(request, "limit", DEFAULT_LIMIT), MAX_LIMIT);
+    int offset = getIntParameter(request, "offset", 0);
+    if (limit <= 0 || offset < 0) {
+      throw new BadRequestException("limit must be positive and offset non-negative");
+    }
+
+    CommentSearchIndex.Results results =
+        CommentSearchIndex.getInstance()
+            .search(CommentStoreFactory.getCommentStore(), query, offset, limit);
+
+    Gson gson = new Gson();
+    JsonObject page = new JsonObject();
+    page.add("comments", gson.toJsonTree(results.getComments()));
+    page.addProperty("total", results.getTotal());
+    if (offset + limit < results.getTotal()) {
+      page.addProperty("nextOffset", offset + limit);
+    }
+
+    response.setContentType("application/json;");
+    response.getWriter().println(gson.toJson(page));
+  }
+
+  private static int getIntParameter(HttpServletRequest request, String name, int defaultValue) {
+    String value = request.getParameter(name);
+    if (value == null || value.isEmpty()) {
+      return defaultValue;
+    }
+
+    try {
+      return Integer.parseInt(value);
+    } catch (NumberFormatException e) {
+      throw new BadRequestException("Invalid " + name);
+    }
+  }
+}
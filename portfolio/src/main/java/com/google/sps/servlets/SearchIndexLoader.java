@@ -0,0 +1,43 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package com.google.sps.servlets;
+
+import com.google.sps.data.CommentSearchIndex;
+import com.google.sps.data.CommentStoreFactory;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.servlet.ServletContextEvent;
+import javax.servlet.ServletContextListener;
+import javax.servlet.annotation.WebListener;
+
+/**
+ * Loads the {@link CommentSearchIndex} when the app starts on an instance, so that no search waits
+ * for every comment to be read and indexed.
+ */
+@WebListener
+public class SearchIndexLoader implements ServletContextListener {
+  private static final Logger logger = Logger.getLogger(SearchIndexLoader.class.getName());
+
+  @Override
+  public void contextInitialized(ServletContextEvent event) {
+    try {
+      CommentSearchIndex.getInstance().load(CommentStoreFactory.getCommentStore());
+    } catch (RuntimeException e) {
+      // The store is unavailable; the index is loaded by the first search instead.
+      logger.log(Level.WARNING, "Could not load the comment search index", e);
+    }
+  }
+}
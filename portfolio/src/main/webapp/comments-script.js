@@ -94,8 +94,9 @@ function addCommentOptions(comment, commentElement, commentDetailsElement,
  * in which the text will be included.
  */
 function addCommentText(comment, commentDetailsElement) {
-  const commentTextElement = createElement('p', 'comment-text',
-      comment.commentText);
+  const commentTextElement = createElement('p', 'comment-text', '');
+  // The server sanitizes the HTML when the comment is written.
+  commentTextElement.innerHTML = comment.commentHtml;
   commentDetailsElement.appendChild(commentTextElement);
 }
 
@@ -210,6 +211,7 @@ function addSubmitButton(comment, commentElement, commentDetailsElement,
  */
 function createCommentElement(comment, userEmail) {
   const commentElement = createElement('div', 'comment', '');
+  commentElement.id = 'comment' + comment.id;
   addAuthorIcon(commentElement);
   addCommentDetails(comment, commentElement, userEmail);
 
@@ -260,19 +262,119 @@ function deleteComment(comment) {
   fetch('/delete-comment', {method: 'POST', body: params});
 }
 
+/** The number of comments fetched from the server at a time. */
+const COMMENTS_PAGE_SIZE = 20;
+
 /**
- * Fetches comments from the server and adds them to the DOM.
+ * How close (in pixels) the user has to scroll to the end of the comments
+ * section before the next page is fetched.
+ */
+const COMMENTS_SCROLL_MARGIN = 100;
+
+/** The cursor of the next page of comments, or null if all were loaded. */
+let nextCommentsCursor = null;
+
+/** Whether a page of comments is being fetched at the moment. */
+let loadingComments = false;
+
+/**
+ * Adds the first page of comments to the DOM, fetching it from the server
+ * unless it is given. The following pages are fetched when the user scrolls
+ * to the end of the comments section.
  * @param {String} userEmail The user's email address will be used to
  * determine the comments for which edit options will be available.
+ * @param {Object} firstPage The first page of comments, as returned by
+ * /list-comments, or undefined to fetch it.
+ */
+async function loadComments(userEmail, firstPage) {
+  const commentsList = document.getElementById('comments-section');
+
+  commentsList.addEventListener('scroll', () => {
+    const remaining = commentsList.scrollHeight - commentsList.scrollTop -
+        commentsList.clientHeight;
+    if (remaining < COMMENTS_SCROLL_MARGIN && nextCommentsCursor !== null) {
+      loadCommentsPage(userEmail, nextCommentsCursor);
+    }
+  });
+
+  if (firstPage) {
+    showCommentsPage(userEmail, firstPage);
+  } else {
+    await loadCommentsPage(userEmail, null);
+  }
+  listenForCommentChanges(userEmail);
+}
+
+/**
+ * Keeps the comments section up to date with the comments added and deleted
+ * by other users, as pushed by the server.
+ * @param {String} userEmail The email address of the current user.
+ */
+function listenForCommentChanges(userEmail) {
+  const commentsList = document.getElementById('comments-section');
+  const commentsStream = new EventSource('/comments/stream');
+
+  commentsStream.addEventListener('added', (event) => {
+    const comment = JSON.parse(event.data);
+    if (document.getElementById('comment' + comment.id) === null) {
+      commentsList.insertBefore(createCommentElement(comment, userEmail),
+          commentsList.firstChild);
+    }
+  });
+
+  commentsStream.addEventListener('deleted', (event) => {
+    const commentElement = document.getElementById('comment' + event.data);
+    if (commentElement !== null) {
+      commentElement.remove();
+    }
+  });
+
+  commentsStream.addEventListener('reset', () => {
+    commentsList.innerHTML = '';
+    nextCommentsCursor = null;
+    loadCommentsPage(userEmail, null);
+  });
+}
+
+/**
+ * Fetches one page of comments from the server and appends them to the DOM.
+ * @param {String} userEmail The email address of the current user.
+ * @param {String} cursor The cursor returned with the previous page, or null
+ * for the first page.
+ */
+async function loadCommentsPage(userEmail, cursor) {
+  if (loadingComments) {
+    return;
+  }
+  loadingComments = true;
+
+  try {
+    const params = new URLSearchParams();
+    params.append('limit', COMMENTS_PAGE_SIZE);
+    if (cursor !== null) {
+      params.append('cursor', cursor);
+    }
+
+    const commentsData = await fetch('/list-comments?' + params.toString());
+    const commentsPage = await commentsData.json();
+    showCommentsPage(userEmail, commentsPage);
+  } finally {
+    loadingComments = false;
+  }
+}
+
+/**
+ * Appends a page of comments to the DOM.
+ * @param {String} userEmail The email address of the current user.
+ * @param {Object} commentsPage The page, as returned by /list-comments.
  */
-async function loadComments(userEmail) {
-  const commentsData = await fetch('/list-comments');
-  const comments = await commentsData.json();
+function showCommentsPage(userEmail, commentsPage) {
   const commentsList = document.getElementById('comments-section');
 
-  comments.forEach((comment) => {
+  commentsPage.comments.forEach((comment) => {
     commentsList.appendChild(createCommentElement(comment, userEmail));
   });
+  nextCommentsCursor = commentsPage.nextCursor || null;
 }
 
 /**
@@ -314,6 +416,8 @@ function updateComment(comment) {
 
   deleteComment(comment);
   comment.commentText = commentText;
+  // Shown as plain text until the sanitized version comes back from the server.
+  comment.commentHtml = createElement('p', '', commentText).innerHTML;
   sendComment(commentText);
 }
 
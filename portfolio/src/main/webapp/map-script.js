@@ -16,6 +16,9 @@
 
 import {createElement} from './script.js';
 
+// Keys of the markers already on the map, so that each is only added once.
+const shownMarkers = new Set();
+
 /** Class used to define the coordinates of a position. */
 class Position {
   /**
@@ -180,7 +183,8 @@ function createNewMarkerForm(map, markerPosition, submitMarker) {
 }
 
 /**
- * Creates the map and fetches the markers from the database.
+ * Creates the map and shows the markers. The markers inside the viewport are
+ * fetched whenever the map stops moving.
  * @param {Object} loginStatus Object that contains data about the current
  * user(it will be used for restricting the feature of adding a new marker).
  */
@@ -202,23 +206,47 @@ function loadMap(loginStatus) {
   }
 
   createMapIntro(loginStatus);
-  loadMarkers(map);
+  map.addListener('idle', () => loadMarkers(map));
 }
+
 /**
- * Fetches the markers stored in the database.
+ * Fetches the markers inside the viewport of the map.
  * @param {Object} map The map associated with these markers.
  */
 function loadMarkers(map) {
-  fetch('/markers')
+  const bounds = map.getBounds();
+  if (!bounds) {
+    return;
+  }
+
+  const params = new URLSearchParams();
+  params.append('minLat', bounds.getSouthWest().lat());
+  params.append('maxLat', bounds.getNorthEast().lat());
+  params.append('minLng', bounds.getSouthWest().lng());
+  params.append('maxLng', bounds.getNorthEast().lng());
+
+  fetch('/markers?' + params.toString())
       .then((response) => response.json())
-      .then((markers) => {
-        markers.forEach((marker) => {
-          const markerPosition = new Position(marker.latitude,
-              marker.longitude);
-          const markerItem = new MarkerItem(markerPosition, marker.content);
-          createMarkerElement(map, markerItem);
-        });
-      });
+      .then((markers) => showMarkers(map, markers));
+}
+
+/**
+ * Adds markers to the map.
+ * @param {Object} map The map associated with these markers.
+ * @param {Array} markers The markers, as returned by /markers.
+ */
+function showMarkers(map, markers) {
+  markers.forEach((marker) => {
+    const markerKey = JSON.stringify(marker);
+    if (shownMarkers.has(markerKey)) {
+      return;
+    }
+    shownMarkers.add(markerKey);
+
+    const markerPosition = new Position(marker.latitude, marker.longitude);
+    const markerItem = new MarkerItem(markerPosition, marker.content);
+    createMarkerElement(map, markerItem);
+  });
 }
 
 export {loadMap};
@@ -182,14 +182,15 @@ async function loadLoginStatus() {
 }
 
 /**
- * Loads the content stored in the database.
+ * Loads the content stored in the database, all in one request.
  */
 async function loadPage() {
-  const loginStatus = await loadLoginStatus();
-  const userEmail = await loginStatus.userEmail;
+  const bootstrapData = await fetch('/bootstrap');
+  const bootstrap = await bootstrapData.json();
+  const loginStatus = bootstrap.loginStatus;
 
   loadMap(loginStatus);
-  loadComments(userEmail);
+  loadComments(loginStatus.userEmail, bootstrap.comments);
 }
 
 /**
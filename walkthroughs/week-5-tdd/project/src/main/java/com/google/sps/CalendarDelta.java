@@ -0,0 +1,80 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The changes a client needs to apply to bring its copy of the calendar to {@code version}. When
+ * {@code full} is set, the client is too far behind for a delta: {@code added} then holds every
+ * event of the calendar and the client's copy should be replaced.
+ */
+public final class CalendarDelta {
+  private final long version;
+  private final boolean full;
+  private final List<VersionedEvent> added = new ArrayList<>();
+  private final List<VersionedEvent> changed = new ArrayList<>();
+  private final List<Long> deleted = new ArrayList<>();
+
+  /**
+   * Creates a new delta.
+   *
+   * @param version The version of the calendar after applying the delta.
+   * @param full Whether the delta is a full snapshot of the calendar.
+   * @param added The events added since the client's version.
+   * @param changed The events modified since the client's version.
+   * @param deleted The identifiers of the events removed since the client's version.
+   */
+  public CalendarDelta(
+      long version,
+      boolean full,
+      Collection<VersionedEvent> added,
+      Collection<VersionedEvent> changed,
+      Collection<Long> deleted) {
+    this.version = version;
+    this.full = full;
+    this.added.addAll(added);
+    this.changed.addAll(changed);
+    this.deleted.addAll(deleted);
+  }
+
+  /** Returns the version of the calendar after applying the delta. */
+  public long getVersion() {
+    return version;
+  }
+
+  /** Returns whether the delta is a full snapshot of the calendar. */
+  public boolean isFull() {
+    return full;
+  }
+
+  /** Returns a read-only list of the events added since the client's version. */
+  public List<VersionedEvent> getAdded() {
+    return Collections.unmodifiableList(added);
+  }
+
+  /** Returns a read-only list of the events modified since the client's version. */
+  public List<VersionedEvent> getChanged() {
+    return Collections.unmodifiableList(changed);
+  }
+
+  /** Returns a read-only list of the identifiers of the events removed. */
+  public List<Long> getDeleted() {
+    return Collections.unmodifiableList(deleted);
+  }
+}
@@ -0,0 +1,296 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Owns the calendar served by this instance. Every write bumps the version of the calendar and is
+ * recorded in a bounded change log, so that clients can ask for the changes since the version they
+ * hold. When a snapshot file is configured, queries are answered from the memory-mapped snapshot
+ * for as long as it matches the current version.
+ */
+public final class CalendarService {
+  /** System property holding the path of the binary snapshot of the calendar. */
+  public static final String SNAPSHOT_PROPERTY = "calendar.snapshot";
+
+  /** The number of writes remembered for computing deltas. */
+  public static final int DEFAULT_CHANGE_LOG_CAPACITY = 1000;
+
+  private static final long INITIAL_VERSION = 1;
+
+  private static CalendarService instance;
+
+  /**
+   * The events of the calendar at one version, published together so readers see both or neither.
+   */
+  public static final class Contents {
+    private final long version;
+    private final Collection<Event> events;
+
+    private Contents(long version, Collection<Event> events) {
+      this.version = version;
+      this.events = events;
+    }
+
+    public long getVersion() {
+      return version;
+    }
+
+    /** Returns a read-only view of the events at this version. */
+    public Collection<Event> getEvents() {
+      return events;
+    }
+  }
+
+  /** A write recorded in the change log. */
+  private static final class Change {
+    private final long version;
+    private final long id;
+    private final long createdVersion;
+
+    private Change(long version, long id, long createdVersion) {
+      this.version = version;
+      this.id = id;
+      this.createdVersion = createdVersion;
+    }
+  }
+
+  private final Map<Long, VersionedEvent> entries = new LinkedHashMap<>();
+  private final ArrayDeque<Change> changeLog = new ArrayDeque<>();
+  private final int changeLogCapacity;
+  private long nextId = 1;
+
+  // The oldest version from which a delta can still be computed. Writes older than this one have
+  // been dropped from the change log.
+  private long oldestDeltaVersion;
+
+  // The version and the events, replaced as one by every write.
+  private volatile Contents contents;
+  private volatile CalendarSnapshot snapshot;
+
+  /**
+   * Creates a new calendar.
+   *
+   * @param events The initial events of the calendar.
+   * @param version The initial version of the calendar.
+   */
+  public CalendarService(Collection<Event> events, long version) {
+    this(events, version, DEFAULT_CHANGE_LOG_CAPACITY);
+  }
+
+  /**
+   * Creates a new calendar.
+   *
+   * @param events The initial events of the calendar.
+   * @param version The initial version of the calendar.
+   * @param changeLogCapacity The number of writes remembered for computing deltas.
+   */
+  public CalendarService(Collection<Event> events, long version, int changeLogCapacity) {
+    if (changeLogCapacity <= 0) {
+      throw new IllegalArgumentException("changeLogCapacity must be positive");
+    }
+
+    this.oldestDeltaVersion = version;
+    this.changeLogCapacity = changeLogCapacity;
+    for (Event event : events) {
+      long id = nextId++;
+      entries.put(id, new VersionedEvent(id, version, version, event));
+    }
+    this.contents = new Contents(version, copyEvents());
+  }
+
+  /**
+   * Returns the calendar shared by the servlets, loading the snapshot named by {@link
+   * #SNAPSHOT_PROPERTY} if there is one.
+   */
+  public static synchronized CalendarService getInstance() throws IOException {
+    if (instance == null) {
+      CalendarService service = new CalendarService(Arrays.asList(Events.events), INITIAL_VERSION);
+      String snapshotPath = System.getProperty(SNAPSHOT_PROPERTY);
+      if (snapshotPath != null && !snapshotPath.isEmpty()) {
+        service.useSnapshot(Paths.get(snapshotPath));
+      }
+      instance = service;
+    }
+    return instance;
+  }
+
+  /** Returns the current version of the calendar together with its events. */
+  public Contents getContents() {
+    return contents;
+  }
+
+  /** Returns a read-only view of all the events of the calendar. */
+  public Collection<Event> getEvents() {
+    return contents.getEvents();
+  }
+
+  /** Returns the version of the calendar. */
+  public long getVersion() {
+    return contents.getVersion();
+  }
+
+  /**
+   * Returns the events needed to schedule a meeting between the given attendees. Events of other
+   * people may or may not be included.
+   */
+  public Collection<Event> getEventsFor(Collection<String> attendees) {
+    Contents current = contents;
+    CalendarSnapshot currentSnapshot = snapshot;
+    if (currentSnapshot != null && currentSnapshot.getVersion() == current.getVersion()) {
+      return currentSnapshot.getEvents(attendees);
+    }
+    return current.getEvents();
+  }
+
+  /**
+   * Adds a new event to the calendar.
+   *
+   * @return The stored event, with its identifier and version.
+   */
+  public synchronized VersionedEvent addEvent(Event event) {
+    long id = nextId++;
+    long newVersion = contents.getVersion() + 1;
+    VersionedEvent entry = new VersionedEvent(id, newVersion, newVersion, event);
+    entries.put(id, entry);
+    recordChange(new Change(newVersion, id, newVersion));
+    return entry;
+  }
+
+  /**
+   * Replaces an event of the calendar.
+   *
+   * @return The stored event, with its identifier and new version.
+   */
+  public synchronized VersionedEvent updateEvent(long id, Event event) {
+    VersionedEvent previous = entries.get(id);
+    if (previous == null) {
+      throw new IllegalArgumentException("Unknown event: " + id);
+    }
+
+    long newVersion = contents.getVersion() + 1;
+    VersionedEvent entry = new VersionedEvent(id, newVersion, previous.getCreatedVersion(), event);
+    entries.put(id, entry);
+    recordChange(new Change(newVersion, id, previous.getCreatedVersion()));
+    return entry;
+  }
+
+  /**
+   * Removes an event from the calendar.
+   *
+   * @return Whether the calendar contained the event.
+   */
+  public synchronized boolean removeEvent(long id) {
+    VersionedEvent previous = entries.remove(id);
+    if (previous == null) {
+      return false;
+    }
+
+    recordChange(new Change(contents.getVersion() + 1, id, previous.getCreatedVersion()));
+    return true;
+  }
+
+  /**
+   * Returns the changes made to the calendar after the given version. A full snapshot is returned
+   * instead when the change log no longer reaches back to {@code since}, or when {@code since} is
+   * not a version this calendar has been at.
+   */
+  public synchronized CalendarDelta getChangesSince(long since) {
+    long version = contents.getVersion();
+    if (since < oldestDeltaVersion || since > version) {
+      return new CalendarDelta(
+          version, true, entries.values(), Collections.emptyList(), Collections.emptyList());
+    }
+
+    // Walk the log from the newest write, so that the first change seen for an event is its latest
+    // one, and stop at the first write the client already has.
+    Map<Long, Change> latestChanges = new LinkedHashMap<>();
+    Iterator<Change> iterator = changeLog.descendingIterator();
+    while (iterator.hasNext()) {
+      Change change = iterator.next();
+      if (change.version <= since) {
+        break;
+      }
+      latestChanges.putIfAbsent(change.id, change);
+    }
+
+    List<VersionedEvent> added = new ArrayList<>();
+    List<VersionedEvent> changed = new ArrayList<>();
+    List<Long> deleted = new ArrayList<>();
+    for (Change change : latestChanges.values()) {
+      VersionedEvent entry = entries.get(change.id);
+      if (entry != null) {
+        if (entry.getCreatedVersion() > since) {
+          added.add(entry);
+        } else {
+          changed.add(entry);
+        }
+      } else if (change.createdVersion <= since) {
+        // Events both added and removed since the client's version are of no interest to it.
+        deleted.add(change.id);
+      }
+    }
+    return new CalendarDelta(version, false, added, changed, deleted);
+  }
+
+  /** Writes a snapshot of the current calendar to the given path. */
+  public synchronized void writeSnapshot(Path path) throws IOException {
+    CalendarSnapshot.write(path, contents.getEvents(), contents.getVersion());
+  }
+
+  /**
+   * Serves queries from the snapshot at the given path. The snapshot is (re)written first if it is
+   * missing or belongs to another version of the calendar.
+   */
+  public void useSnapshot(Path path) throws IOException {
+    CalendarSnapshot existing = Files.exists(path) ? CalendarSnapshot.open(path) : null;
+    if (existing == null || existing.getVersion() != getVersion()) {
+      writeSnapshot(path);
+      existing = CalendarSnapshot.open(path);
+    }
+    snapshot = existing;
+  }
+
+  /** Appends a write to the change log, dropping the oldest writes beyond its capacity. */
+  private void recordChange(Change change) {
+    changeLog.addLast(change);
+    while (changeLog.size() > changeLogCapacity) {
+      oldestDeltaVersion = changeLog.removeFirst().version;
+    }
+
+    contents = new Contents(change.version, copyEvents());
+  }
+
+  private Collection<Event> copyEvents() {
+    List<Event> copy = new ArrayList<>(entries.size());
+    for (VersionedEvent entry : entries.values()) {
+      copy.add(entry.getEvent());
+    }
+    return Collections.unmodifiableList(copy);
+  }
+}
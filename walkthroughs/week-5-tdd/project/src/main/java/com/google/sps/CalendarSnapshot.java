@@ -0,0 +1,263 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Read-only binary image of a calendar, opened through a memory-mapped file so that a new instance
+ * can answer queries without rebuilding the calendar from its source.
+ *
+ * <p>The file is laid out as follows (all numbers are big-endian):
+ *
+ * <pre>
+ *   header:     magic (int), format (int), calendar version (long), attendee count (int)
+ *   dictionary: one entry per attendee, sorted by the UTF-8 bytes of the name:
+ *               name offset (int), name length (int), interval offset (int), interval count (int)
+ *   names:      the UTF-8 bytes of every attendee name
+ *   intervals:  (start, end) minute pairs, sorted by start and merged per attendee
+ * </pre>
+ */
+public final class CalendarSnapshot {
+  private static final int MAGIC = 0x43414C53; // "CALS"
+  private static final int FORMAT = 1;
+
+  private static final int HEADER_SIZE = 4 + 4 + 8 + 4;
+  private static final int DICTIONARY_ENTRY_SIZE = 4 * 4;
+  private static final int INTERVAL_SIZE = 2 * 4;
+
+  private final ByteBuffer buffer;
+  private final long version;
+  private final int attendeeCount;
+
+  private CalendarSnapshot(ByteBuffer buffer) {
+    if (buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+      throw new IllegalArgumentException("Not a calendar snapshot.");
+    }
+
+    if (buffer.getInt(4) != FORMAT) {
+      throw new IllegalArgumentException("Unsupported snapshot format: " + buffer.getInt(4));
+    }
+
+    this.buffer = buffer;
+    this.version = buffer.getLong(8);
+    this.attendeeCount = buffer.getInt(16);
+  }
+
+  /**
+   * Maps an existing snapshot file into memory. Only the header is read; everything else is read on
+   * demand from the mapped pages.
+   *
+   * @param path The snapshot file previously produced by {@link #write}.
+   * @return The opened snapshot.
+   */
+  public static CalendarSnapshot open(Path path) throws IOException {
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      // The mapping stays valid after the channel is closed.
+      MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      return new CalendarSnapshot(mapped);
+    }
+  }
+
+  /**
+   * Writes a snapshot of the given events. The file is written next to its final location and then
+   * moved into place, so a reader never maps a half-written snapshot.
+   *
+   * @param path The destination of the snapshot.
+   * @param events The events of the calendar.
+   * @param version The version of the calendar the events belong to.
+   */
+  public static void write(Path path, Collection<Event> events, long version) throws IOException {
+    // Group the busy intervals of every attendee. The keys are kept in the order of their UTF-8
+    // bytes so that lookups can binary search the dictionary without decoding names.
+    TreeMap<byte[], List<TimeRange>> busyRanges = new TreeMap<>(CalendarSnapshot::compareBytes);
+    for (Event event : events) {
+      for (String attendee : event.getAttendees()) {
+        busyRanges
+            .computeIfAbsent(attendee.getBytes(StandardCharsets.UTF_8), key -> new ArrayList<>())
+            .add(event.getWhen());
+      }
+    }
+
+    Map<byte[], int[]> intervals = new HashMap<>();
+    int namesSize = 0;
+    int intervalsSize = 0;
+    for (Map.Entry<byte[], List<TimeRange>> entry : busyRanges.entrySet()) {
+      int[] merged = mergeRanges(entry.getValue());
+      intervals.put(entry.getKey(), merged);
+      namesSize += entry.getKey().length;
+      intervalsSize += merged.length * 4;
+    }
+
+    int dictionaryStart = HEADER_SIZE;
+    int namesStart = dictionaryStart + busyRanges.size() * DICTIONARY_ENTRY_SIZE;
+    int intervalsStart = namesStart + namesSize;
+
+    ByteBuffer out = ByteBuffer.allocate(intervalsStart + intervalsSize);
+    out.putInt(MAGIC).putInt(FORMAT).putLong(version).putInt(busyRanges.size());
+
+    int nameOffset = namesStart;
+    int intervalOffset = intervalsStart;
+    for (byte[] name : busyRanges.keySet()) {
+      int[] merged = intervals.get(name);
+      out.putInt(nameOffset).putInt(name.length).putInt(intervalOffset).putInt(merged.length / 2);
+      nameOffset += name.length;
+      intervalOffset += merged.length * 4;
+    }
+
+    for (byte[] name : busyRanges.keySet()) {
+      out.put(name);
+    }
+
+    for (byte[] name : busyRanges.keySet()) {
+      for (int minute : intervals.get(name)) {
+        out.putInt(minute);
+      }
+    }
+
+    Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+    Files.write(temporary, out.array());
+    Files.move(
+        temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  /** Returns the version of the calendar captured by this snapshot. */
+  public long getVersion() {
+    return version;
+  }
+
+  /** Returns the number of attendees that have at least one event. */
+  public int getAttendeeCount() {
+    return attendeeCount;
+  }
+
+  /**
+   * Returns the times when the given attendee is busy, sorted by start time. Overlapping events of
+   * the attendee are merged into a single range.
+   */
+  public List<TimeRange> getBusyRanges(String attendee) {
+    int entry = findAttendee(attendee.getBytes(StandardCharsets.UTF_8));
+    if (entry < 0) {
+      return Arrays.asList();
+    }
+
+    int entryOffset = HEADER_SIZE + entry * DICTIONARY_ENTRY_SIZE;
+    int intervalOffset = buffer.getInt(entryOffset + 8);
+    int intervalCount = buffer.getInt(entryOffset + 12);
+
+    List<TimeRange> ranges = new ArrayList<>(intervalCount);
+    for (int i = 0; i < intervalCount; i++) {
+      int start = buffer.getInt(intervalOffset + i * INTERVAL_SIZE);
+      int end = buffer.getInt(intervalOffset + i * INTERVAL_SIZE + 4);
+      ranges.add(TimeRange.fromStartEnd(start, end, false));
+    }
+    return ranges;
+  }
+
+  /**
+   * Builds the events needed to answer a query about the given attendees. Each busy range becomes
+   * an event attended only by its owner, so the cost depends on the size of the request rather than
+   * on the size of the calendar.
+   */
+  public Collection<Event> getEvents(Collection<String> attendees) {
+    List<Event> events = new ArrayList<>();
+    for (String attendee : attendees) {
+      for (TimeRange range : getBusyRanges(attendee)) {
+        events.add(new Event(attendee, range, Arrays.asList(attendee)));
+      }
+    }
+    return events;
+  }
+
+  /** Binary searches the dictionary for the given name and returns its index, or -1. */
+  private int findAttendee(byte[] name) {
+    int low = 0;
+    int high = attendeeCount - 1;
+
+    while (low <= high) {
+      int middle = (low + high) >>> 1;
+      int comparison = compareName(middle, name);
+      if (comparison < 0) {
+        low = middle + 1;
+      } else if (comparison > 0) {
+        high = middle - 1;
+      } else {
+        return middle;
+      }
+    }
+    return -1;
+  }
+
+  /** Compares the name stored in the given dictionary entry with {@code name}, byte by byte. */
+  private int compareName(int entry, byte[] name) {
+    int entryOffset = HEADER_SIZE + entry * DICTIONARY_ENTRY_SIZE;
+    int nameOffset = buffer.getInt(entryOffset);
+    int nameLength = buffer.getInt(entryOffset + 4);
+
+    int length = Math.min(nameLength, name.length);
+    for (int i = 0; i < length; i++) {
+      int comparison = Integer.compare(buffer.get(nameOffset + i) & 0xFF, name[i] & 0xFF);
+      if (comparison != 0) {
+        return comparison;
+      }
+    }
+    return Integer.compare(nameLength, name.length);
+  }
+
+  /** Compares two byte arrays as unsigned bytes, the order used by the dictionary. */
+  private static int compareBytes(byte[] a, byte[] b) {
+    int length = Math.min(a.length, b.length);
+    for (int i = 0; i < length; i++) {
+      int comparison = Integer.compare(a[i] & 0xFF, b[i] & 0xFF);
+      if (comparison != 0) {
+        return comparison;
+      }
+    }
+    return Integer.compare(a.length, b.length);
+  }
+
+  /** Sorts the ranges and merges the overlapping ones into flat (start, end) pairs. */
+  private static int[] mergeRanges(List<TimeRange> ranges) {
+    List<TimeRange> sorted = new ArrayList<>(ranges);
+    sorted.sort(TimeRange.ORDER_BY_START);
+
+    int[] merged = new int[sorted.size() * 2];
+    int size = 0;
+    for (TimeRange range : sorted) {
+      if (size > 0 && range.start() <= merged[size - 1]) {
+        merged[size - 1] = Math.max(merged[size - 1], range.end());
+      } else {
+        merged[size++] = range.start();
+        merged[size++] = range.end();
+      }
+    }
+    return Arrays.copyOf(merged, size);
+  }
+}
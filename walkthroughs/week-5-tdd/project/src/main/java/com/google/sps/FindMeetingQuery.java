@@ -64,6 +64,21 @@ final class SlotAttendance implements Comparable<SlotAttendance> {
 }
 
 public final class FindMeetingQuery {
+  private final QueryStats stats;
+
+  /** Creates a query engine that reports to the statistics shared by the instance. */
+  public FindMeetingQuery() {
+    this(QueryStats.getInstance());
+  }
+
+  /**
+   * Creates a query engine.
+   *
+   * @param stats The statistics the engine reports its counters and latencies to.
+   */
+  public FindMeetingQuery(QueryStats stats) {
+    this.stats = stats;
+  }
 
   /**
    * Initialises a list of SlotAttendance associations for a given list of time slots and an
@@ -208,11 +223,29 @@ public final class FindMeetingQuery {
    */
   public List<TimeRange> getSlotsAvailable(
       Collection<Event> currentEvents, Collection<String> mandatoryAttendees, long targetDuration) {
+    return getSlotsAvailable(currentEvents, mandatoryAttendees, targetDuration, null);
+  }
+
+  /**
+   * Same as {@link #getSlotsAvailable(Collection, Collection, long)}, but gives up once the
+   * deadline of {@code request} passes. No slot is known to be free until all the events have been
+   * considered, so the exception thrown carries no partial answer.
+   */
+  private List<TimeRange> getSlotsAvailable(
+      Collection<Event> currentEvents,
+      Collection<String> mandatoryAttendees,
+      long targetDuration,
+      MeetingRequest request) {
     // The hashmap will store pairs such as (startTime, endTime), where endTime
     // is the latest end of all the events that start at the same startTime.
     HashMap<Integer, Integer> unavailableSlots = new HashMap<Integer, Integer>();
+    stats.countEventsScanned(currentEvents.size());
 
     for (Event currentEvent : currentEvents) {
+      if (request != null && request.isPastDeadline()) {
+        throw new QueryTimeoutException(Collections.emptyList());
+      }
+
       if (!Collections.disjoint(currentEvent.getAttendees(), mandatoryAttendees)) {
         TimeRange currentEventSlot = currentEvent.getWhen();
         int currentEventStart = currentEventSlot.start();
@@ -296,6 +329,21 @@ public final class FindMeetingQuery {
       Collection<String> optionalAttendees,
       List<TimeRange> availableSlots,
       long targetDuration) {
+    return includeOptionalAttendees(
+        currentEvents, optionalAttendees, availableSlots, targetDuration, null);
+  }
+
+  /**
+   * Same as {@link #includeOptionalAttendees(Collection, Collection, List, long)}, but gives up
+   * once the deadline of {@code request} passes. The exception thrown then carries the best slots
+   * according to the events considered so far, which all suit the mandatory attendees.
+   */
+  private List<TimeRange> includeOptionalAttendees(
+      Collection<Event> currentEvents,
+      Collection<String> optionalAttendees,
+      List<TimeRange> availableSlots,
+      long targetDuration,
+      MeetingRequest request) {
     if (optionalAttendees.size() == 0 || availableSlots.size() == 0) {
       return availableSlots;
     }
@@ -304,8 +352,18 @@ public final class FindMeetingQuery {
     // participants.
     List<SlotAttendance> slotsAttendance =
         initSlotsAttendance(availableSlots, optionalAttendees.size());
+    stats.countEventsScanned(currentEvents.size());
+    long splits = 0;
 
     for (Event currentEvent : currentEvents) {
+      if (request != null && request.isPastDeadline()) {
+        stats.countOptionalSplits(splits);
+        throw new QueryTimeoutException(
+            slotsAttendance.isEmpty()
+                ? Collections.emptyList()
+                : getTheBestAttendanceSlots(slotsAttendance));
+      }
+
       int commonAttendees = getNumberOfCommonAttendees(currentEvent, optionalAttendees);
       if (commonAttendees > 0) {
         List<SlotAttendance> newSlotsAttendance = new ArrayList<SlotAttendance>();
@@ -319,6 +377,7 @@ public final class FindMeetingQuery {
 
           if (currentSlot.overlaps(currentEventSlot)) {
             iterator.remove();
+            splits++;
 
             Optional<TimeRange> optionalIntersectionSlot =
                 getIntersectionSlot(currentSlot, currentEventSlot);
@@ -347,21 +406,41 @@ public final class FindMeetingQuery {
         slotsAttendance.addAll(newSlotsAttendance);
       }
     }
+    stats.countOptionalSplits(splits);
     return getTheBestAttendanceSlots(slotsAttendance);
   }
 
+  /**
+   * Finds the slots in which the meeting can take place with all the mandatory attendees and as
+   * many optional attendees as possible.
+   *
+   * @param events The events already scheduled.
+   * @param request The meeting to schedule.
+   * @return The slots available for the meeting.
+   * @throws QueryTimeoutException If the request has a deadline and the query runs past it.
+   */
   public Collection<TimeRange> query(Collection<Event> events, MeetingRequest request) {
     Collection<String> mandatoryAttendees = request.getAttendees();
     Collection<String> optionalAttendees = request.getOptionalAttendees();
     long duration = request.getDuration();
 
+    stats.countQuery();
     if (duration > TimeRange.WHOLE_DAY.duration()) {
       return Arrays.asList();
     }
 
-    List<TimeRange> slotsAvailable = getSlotsAvailable(events, mandatoryAttendees, duration);
-    slotsAvailable = includeOptionalAttendees(events, optionalAttendees, slotsAvailable, duration);
+    long phaseStart = System.nanoTime();
+    List<TimeRange> slotsAvailable =
+        getSlotsAvailable(events, mandatoryAttendees, duration, request);
+    long phaseEnd = System.nanoTime();
+    stats.recordLatency(QueryStats.Phase.MANDATORY_SLOTS, phaseEnd - phaseStart);
+
+    phaseStart = phaseEnd;
+    slotsAvailable =
+        includeOptionalAttendees(events, optionalAttendees, slotsAvailable, duration, request);
+    stats.recordLatency(QueryStats.Phase.OPTIONAL_ATTENDEES, System.nanoTime() - phaseStart);
 
+    stats.countSlotsProduced(slotsAvailable.size());
     return slotsAvailable;
   }
 }
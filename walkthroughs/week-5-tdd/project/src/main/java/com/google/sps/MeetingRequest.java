@@ -39,6 +39,11 @@ public final class MeetingRequest {
   // The duration of the meeting in minutes.
   private final long duration;
 
+  // The System.nanoTime() value by which the answer is needed. It is set by the server, so it is
+  // not part of the request sent by the client.
+  private transient boolean hasDeadline;
+  private transient long deadlineNanos;
+
   public MeetingRequest(Collection<String> attendees, long duration) {
     this.duration = duration;
     this.attendees.addAll(attendees);
@@ -73,4 +78,23 @@ public final class MeetingRequest {
   public long getDuration() {
     return duration;
   }
+
+  /**
+   * Sets the time by which the answer is needed, as a {@code System.nanoTime()} value. A query that
+   * runs past it stops with a {@link QueryTimeoutException}.
+   */
+  public void setDeadline(long deadlineNanos) {
+    this.hasDeadline = true;
+    this.deadlineNanos = deadlineNanos;
+  }
+
+  /** Returns whether the request has a deadline. */
+  public boolean hasDeadline() {
+    return hasDeadline;
+  }
+
+  /** Returns whether the deadline of the request, if any, has passed. */
+  public boolean isPastDeadline() {
+    return hasDeadline && System.nanoTime() - deadlineNanos > 0;
+  }
 }
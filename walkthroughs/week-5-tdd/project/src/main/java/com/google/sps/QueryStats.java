@@ -0,0 +1,131 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latency histograms and counters of the meeting scheduler. All the recording methods are
+ * lock-free, so the statistics can be shared by every request of the instance.
+ */
+public final class QueryStats {
+  /** The phases of a query whose latency is measured. */
+  public enum Phase {
+    /** Parsing the meeting request from the JSON body. */
+    PARSE,
+    /** Finding the slots available to the mandatory attendees ({@code getSlotsAvailable}). */
+    MANDATORY_SLOTS,
+    /** Narrowing the slots down for the optional attendees ({@code includeOptionalAttendees}). */
+    OPTIONAL_ATTENDEES,
+    /** Converting the answer to JSON. */
+    SERIALIZE,
+    /** The whole request, as seen by the servlet. */
+    TOTAL
+  }
+
+  private static final QueryStats INSTANCE = new QueryStats();
+
+  private final LatencyHistogram[] histograms = new LatencyHistogram[Phase.values().length];
+  private final LongAdder queries = new LongAdder();
+  private final LongAdder eventsScanned = new LongAdder();
+  private final LongAdder slotsProduced = new LongAdder();
+  private final LongAdder optionalSplits = new LongAdder();
+  private final LongAdder timeouts = new LongAdder();
+  private final LongAdder partialAnswers = new LongAdder();
+
+  /** Creates a new set of statistics, with every histogram and counter empty. */
+  public QueryStats() {
+    for (int i = 0; i < histograms.length; i++) {
+      histograms[i] = new LatencyHistogram();
+    }
+  }
+
+  /** Returns the statistics shared by the scheduler and its servlets. */
+  public static QueryStats getInstance() {
+    return INSTANCE;
+  }
+
+  /** Records how long one phase of a query took, in nanoseconds. */
+  public void recordLatency(Phase phase, long nanos) {
+    histograms[phase.ordinal()].record(nanos);
+  }
+
+  /** Returns the latency histogram of the given phase. */
+  public LatencyHistogram getHistogram(Phase phase) {
+    return histograms[phase.ordinal()];
+  }
+
+  /** Counts one query answered by the engine. */
+  public void countQuery() {
+    queries.increment();
+  }
+
+  /** Counts events looked at by the engine. */
+  public void countEventsScanned(long events) {
+    eventsScanned.add(events);
+  }
+
+  /** Counts slots returned by the engine. */
+  public void countSlotsProduced(long slots) {
+    slotsProduced.add(slots);
+  }
+
+  /** Counts slots split because an optional attendee is busy during part of them. */
+  public void countOptionalSplits(long splits) {
+    optionalSplits.add(splits);
+  }
+
+  /**
+   * Counts one query stopped by its deadline.
+   *
+   * @param partial Whether a partial answer could still be sent back.
+   */
+  public void countTimeout(boolean partial) {
+    timeouts.increment();
+    if (partial) {
+      partialAnswers.increment();
+    }
+  }
+
+  /** Returns the number of queries answered by the engine. */
+  public long getQueries() {
+    return queries.sum();
+  }
+
+  /** Returns the number of events looked at by the engine. */
+  public long getEventsScanned() {
+    return eventsScanned.sum();
+  }
+
+  /** Returns the number of slots returned by the engine. */
+  public long getSlotsProduced() {
+    return slotsProduced.sum();
+  }
+
+  /** Returns the number of slots split for optional attendees. */
+  public long getOptionalSplits() {
+    return optionalSplits.sum();
+  }
+
+  /** Returns the number of queries stopped by their deadline. */
+  public long getTimeouts() {
+    return timeouts.sum();
+  }
+
+  /** Returns the number of queries stopped by their deadline that still got a partial answer. */
+  public long getPartialAnswers() {
+    return partialAnswers.sum();
+  }
+}
@@ -0,0 +1,50 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Thrown when a query runs past the deadline of its {@link MeetingRequest}. The exception carries
+ * the best answer found before the deadline: slots that suit every mandatory attendee but that may
+ * not have been checked against all the optional attendees. It is empty when the deadline passed
+ * before the mandatory attendees were fully considered.
+ */
+public final class QueryTimeoutException extends RuntimeException {
+  private final List<TimeRange> partialAnswer = new ArrayList<>();
+
+  /**
+   * Creates a new exception.
+   *
+   * @param partialAnswer The best answer found before the deadline.
+   */
+  public QueryTimeoutException(Collection<TimeRange> partialAnswer) {
+    super("The query did not finish before its deadline.");
+    this.partialAnswer.addAll(partialAnswer);
+  }
+
+  /** Returns whether a usable partial answer was found before the deadline. */
+  public boolean hasPartialAnswer() {
+    return !partialAnswer.isEmpty();
+  }
+
+  /** Returns a read-only list of the slots found before the deadline. */
+  public List<TimeRange> getPartialAnswer() {
+    return Collections.unmodifiableList(partialAnswer);
+  }
+}
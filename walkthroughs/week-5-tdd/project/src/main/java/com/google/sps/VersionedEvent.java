@@ -0,0 +1,68 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+/**
+ * An event stored in the calendar, together with its identifier and the version of the calendar in
+ * which it was last written. Versioned events are considered read-only.
+ */
+public final class VersionedEvent {
+  private final long id;
+  private final long version;
+  private final Event event;
+
+  // The version in which the event was first added. It is only needed to compute deltas, so it is
+  // not sent to the clients.
+  private final transient long createdVersion;
+
+  /**
+   * Creates a new versioned event.
+   *
+   * @param id The identifier of the event in the calendar.
+   * @param version The version of the calendar in which the event was last written.
+   * @param createdVersion The version of the calendar in which the event was added.
+   * @param event The event itself. Must be non-null.
+   */
+  public VersionedEvent(long id, long version, long createdVersion, Event event) {
+    if (event == null) {
+      throw new IllegalArgumentException("event cannot be null");
+    }
+
+    this.id = id;
+    this.version = version;
+    this.createdVersion = createdVersion;
+    this.event = event;
+  }
+
+  /** Returns the identifier of the event in the calendar. */
+  public long getId() {
+    return id;
+  }
+
+  /** Returns the version of the calendar in which the event was last written. */
+  public long getVersion() {
+    return version;
+  }
+
+  /** Returns the version of the calendar in which the event was added. */
+  public long getCreatedVersion() {
+    return createdVersion;
+  }
+
+  /** Returns the event. */
+  public Event getEvent() {
+    return event;
+  }
+}
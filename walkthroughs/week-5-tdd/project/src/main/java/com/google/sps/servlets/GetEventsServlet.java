@@ -14,23 +14,162 @@
 
 package com.google.sps.servlets;
 
-import com.google.sps.Events;
 import com.google.gson.Gson;
+import com.google.sps.CalendarService;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPOutputStream;
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+/**
+ * Returns the events of the calendar. Without parameters the whole calendar is sent as an array of
+ * events. With {@code since=<version>} only the changes made after that version are sent, or a full
+ * snapshot if the client is too far behind. Clients that keep a copy of the calendar start with
+ * {@code since=0}, which always returns a full snapshot carrying the event identifiers.
+ *
+ * <p>The whole-calendar response only changes with the calendar version, so it is serialized and
+ * compressed once per version and validated with a strong ETag.
+ */
 @WebServlet("/get-events")
 public class GetEventsServlet extends HttpServlet {
+  /** The whole-calendar response of one calendar version, ready to be copied to the client. */
+  private static final class EncodedEvents {
+    private final long version;
+    private final String etag;
+    private final byte[] json;
+    private final byte[] gzippedJson;
+
+    private EncodedEvents(long version, byte[] json) throws IOException {
+      this.version = version;
+      this.etag = "\"events-" + version + "\"";
+      this.json = json;
+
+      ByteArrayOutputStream compressed = new ByteArrayOutputStream(json.length / 4 + 64);
+      try (GZIPOutputStream gzip = new GZIPOutputStream(compressed)) {
+        gzip.write(json);
+      }
+      this.gzippedJson = compressed.toByteArray();
+    }
+  }
+
+  private final Gson gson = new Gson();
+  private volatile EncodedEvents encodedEvents;
+
   @Override
   public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
-    Gson gson = new Gson();
-    String jsonResponse = gson.toJson(Events.events);
+    CalendarService calendar = CalendarService.getInstance();
+
+    String since = request.getParameter("since");
+    if (since == null) {
+      sendAllEvents(calendar, request, response);
+      return;
+    }
+
+    long sinceVersion;
+    try {
+      sinceVersion = Long.parseLong(since);
+    } catch (NumberFormatException e) {
+      response.sendError(HttpServletResponse.SC_BAD_REQUEST, "since must be a version number");
+      return;
+    }
+    String jsonResponse = gson.toJson(calendar.getChangesSince(sinceVersion));
 
     // Send the JSON back as the response
     response.setContentType("application/json");
     response.getWriter().println(jsonResponse);
   }
+
+  /** Sends the cached encoding of the whole calendar, or 304 if the client already has it. */
+  private void sendAllEvents(
+      CalendarService calendar, HttpServletRequest request, HttpServletResponse response)
+      throws IOException {
+    EncodedEvents encoded = getEncodedEvents(calendar);
+
+    response.setHeader("ETag", encoded.etag);
+    response.setHeader("Vary", "Accept-Encoding");
+    if (matchesEtag(request.getHeader("If-None-Match"), encoded.etag)) {
+      response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+      return;
+    }
+
+    byte[] body = encoded.json;
+    if (acceptsGzip(request.getHeader("Accept-Encoding"))) {
+      response.setHeader("Content-Encoding", "gzip");
+      body = encoded.gzippedJson;
+    }
+
+    response.setContentType("application/json");
+    response.setContentLength(body.length);
+    response.getOutputStream().write(body);
+  }
+
+  /** Returns the encoding of the current calendar version, building it on the first request. */
+  private EncodedEvents getEncodedEvents(CalendarService calendar) throws IOException {
+    // The version and the events come from one snapshot, so the body always matches its tag.
+    CalendarService.Contents contents = calendar.getContents();
+    long version = contents.getVersion();
+    EncodedEvents encoded = encodedEvents;
+    if (encoded != null && encoded.version == version) {
+      return encoded;
+    }
+
+    synchronized (this) {
+      encoded = encodedEvents;
+      if (encoded == null || encoded.version != version) {
+        byte[] json = gson.toJson(contents.getEvents()).getBytes(StandardCharsets.UTF_8);
+        encoded = new EncodedEvents(version, json);
+        encodedEvents = encoded;
+      }
+      return encoded;
+    }
+  }
+
+  /** Returns whether an If-None-Match header names the given tag. */
+  private static boolean matchesEtag(String ifNoneMatch, String etag) {
+    if (ifNoneMatch == null) {
+      return false;
+    }
+
+    for (String candidate : ifNoneMatch.split(",")) {
+      String tag = candidate.trim();
+      // If-None-Match uses the weak comparison, so a weak form of our tag matches too.
+      if (tag.startsWith("W/")) {
+        tag = tag.substring(2);
+      }
+      if (tag.equals("*") || tag.equals(etag)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /** Returns whether an Accept-Encoding header allows a gzip-encoded response. */
+  private static boolean acceptsGzip(String acceptEncoding) {
+    if (acceptEncoding == null) {
+      return false;
+    }
+
+    for (String candidate : acceptEncoding.split(",")) {
+      String[] parts = candidate.trim().split(";");
+      String coding = parts[0].trim();
+      if (!coding.equalsIgnoreCase("gzip") && !coding.equals("*")) {
+        continue;
+      }
+
+      // An explicit q=0 forbids the coding.
+      boolean forbidden = false;
+      for (int i = 1; i < parts.length; i++) {
+        String parameter = parts[i].trim().replace(" ", "");
+        if (parameter.matches("[qQ]=0(\\.0*)?")) {
+          forbidden = true;
+        }
+      }
+      return !forbidden;
+    }
+    return false;
+  }
 }
@@ -14,14 +14,20 @@
 
 package com.google.sps.servlets;
 
-import com.google.sps.Events;
+import com.google.sps.CalendarService;
+import com.google.sps.Event;
 import com.google.sps.FindMeetingQuery;
 import com.google.sps.MeetingRequest;
+import com.google.sps.QueryStats;
+import com.google.sps.QueryTimeoutException;
 import com.google.sps.TimeRange;
 import com.google.gson.Gson;
 import java.io.IOException;
-import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import javax.servlet.ServletException;
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
@@ -29,23 +35,73 @@ import javax.servlet.http.HttpServletResponse;
 
 @WebServlet("/query")
 public class QueryServlet extends HttpServlet {
+  /** System property holding how long a query may run, in milliseconds. */
+  public static final String TIMEOUT_PROPERTY = "query.timeout.millis";
+
+  private static final long DEFAULT_TIMEOUT_MILLIS = 2000;
+
+  private long timeoutNanos;
+
+  @Override
+  public void init() throws ServletException {
+    // Load the calendar (and map its snapshot) when the instance starts instead of on the first
+    // query.
+    try {
+      CalendarService.getInstance();
+    } catch (IOException e) {
+      throw new ServletException(e);
+    }
+
+    long timeoutMillis = Long.getLong(TIMEOUT_PROPERTY, DEFAULT_TIMEOUT_MILLIS);
+    timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+  }
+
   @Override
   public void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    QueryStats stats = QueryStats.getInstance();
+    long requestStart = System.nanoTime();
     Gson gson = new Gson();
 
     // Convert the JSON to an instance of MeetingRequest.
     MeetingRequest meetingRequest = gson.fromJson(request.getReader(), MeetingRequest.class);
+    stats.recordLatency(QueryStats.Phase.PARSE, System.nanoTime() - requestStart);
+
+    // Huge requests must not hold on to the thread for longer than the time budget of a query.
+    meetingRequest.setDeadline(requestStart + timeoutNanos);
+
+    // Only the events of the people involved are needed, which the calendar can serve straight
+    // from its snapshot.
+    Set<String> people = new HashSet<>(meetingRequest.getAttendees());
+    people.addAll(meetingRequest.getOptionalAttendees());
+    Collection<Event> events = CalendarService.getInstance().getEventsFor(people);
 
     // Find the possible meeting times.
-    FindMeetingQuery findMeetingQuery = new FindMeetingQuery();
-    Collection<TimeRange> answer =
-        findMeetingQuery.query(Arrays.asList(Events.events), meetingRequest);
+    FindMeetingQuery findMeetingQuery = new FindMeetingQuery(stats);
+    Collection<TimeRange> answer;
+    try {
+      answer = findMeetingQuery.query(events, meetingRequest);
+    } catch (QueryTimeoutException e) {
+      stats.countTimeout(e.hasPartialAnswer());
+      if (!e.hasPartialAnswer()) {
+        response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, e.getMessage());
+        // Timed-out requests count towards the total latency like any other.
+        stats.recordLatency(QueryStats.Phase.TOTAL, System.nanoTime() - requestStart);
+        return;
+      }
+
+      // The slots suit every mandatory attendee, but some optional attendees may be busy.
+      response.setHeader("X-Partial-Result", "true");
+      answer = e.getPartialAnswer();
+    }
 
     // Convert the times to JSON
+    long serializeStart = System.nanoTime();
     String jsonResponse = gson.toJson(answer);
+    stats.recordLatency(QueryStats.Phase.SERIALIZE, System.nanoTime() - serializeStart);
 
     // Send the JSON back as the response
     response.setContentType("application/json");
     response.getWriter().println(jsonResponse);
+    stats.recordLatency(QueryStats.Phase.TOTAL, System.nanoTime() - requestStart);
   }
 }
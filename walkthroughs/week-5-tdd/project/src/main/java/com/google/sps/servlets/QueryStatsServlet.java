@@ -0,0 +1,68 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import com.google.gson.Gson;
+import com.google.sps.LatencyHistogram;
+import com.google.sps.QueryStats;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/** Returns the counters of the scheduler and the latency of each query phase, in microseconds. */
+@WebServlet("/query-stats")
+public class QueryStatsServlet extends HttpServlet {
+  private static final double NANOS_PER_MICRO = 1000.0;
+
+  @Override
+  public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    QueryStats stats = QueryStats.getInstance();
+
+    Map<String, Object> counters = new LinkedHashMap<>();
+    counters.put("queries", stats.getQueries());
+    counters.put("eventsScanned", stats.getEventsScanned());
+    counters.put("slotsProduced", stats.getSlotsProduced());
+    counters.put("optionalSplits", stats.getOptionalSplits());
+    counters.put("timeouts", stats.getTimeouts());
+    counters.put("partialAnswers", stats.getPartialAnswers());
+
+    Map<String, Object> phases = new LinkedHashMap<>();
+    for (QueryStats.Phase phase : QueryStats.Phase.values()) {
+      phases.put(phase.name().toLowerCase(), describe(stats.getHistogram(phase)));
+    }
+
+    Map<String, Object> body = new LinkedHashMap<>();
+    body.put("counters", counters);
+    body.put("latencyMicros", phases);
+
+    response.setContentType("application/json");
+    response.getWriter().println(new Gson().toJson(body));
+  }
+
+  private static Map<String, Object> describe(LatencyHistogram histogram) {
+    Map<String, Object> summary = new LinkedHashMap<>();
+    summary.put("count", histogram.getCount());
+    summary.put("mean", histogram.getMean() / NANOS_PER_MICRO);
+    summary.put("p50", histogram.getValueAtPercentile(50) / NANOS_PER_MICRO);
+    summary.put("p90", histogram.getValueAtPercentile(90) / NANOS_PER_MICRO);
+    summary.put("p99", histogram.getValueAtPercentile(99) / NANOS_PER_MICRO);
+    summary.put("max", histogram.getMax() / NANOS_PER_MICRO);
+    return summary;
+  }
+}
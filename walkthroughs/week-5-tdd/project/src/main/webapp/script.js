@@ -33,20 +33,33 @@ function sendMeetingRequest() {
   // the web form.
   const meetingRequest = new MeetingRequest(duration, attendees, optionalAttendees);
 
-  queryServer(meetingRequest).then((timeRanges) => {
-    updateResultsOnPage(timeRanges);
+  queryServer(meetingRequest).then((result) => {
+    updateResultsOnPage(result);
   });
 }
 
 /**
  * Updates the UI to show the results of a query.
  */
-function updateResultsOnPage(timeRanges) {
+function updateResultsOnPage(result) {
   const resultsContainer = document.getElementById('results');
 
   // clear out any old results
   resultsContainer.innerHTML = '';
 
+  if (result.timedOut) {
+    resultsContainer.innerHTML =
+        '<li>The server is busy. Please try again in a moment.</li>';
+    return;
+  }
+
+  if (result.partial) {
+    resultsContainer.innerHTML +=
+        '<li>Not every optional attendee could be checked in time.</li>';
+  }
+
+  const timeRanges = result.timeRanges;
+
   // add results to the page
   for (const range of timeRanges) {
     resultsContainer.innerHTML += '<li>' + timeToString(range.getStartTime()) +
@@ -55,21 +68,27 @@ function updateResultsOnPage(timeRanges) {
 }
 
 /**
- * Sends the meeting request to the server and get back the time ranges.
+ * Sends the meeting request to the server and get back the time ranges. The
+ * result also tells whether the server ran out of time, in which case the
+ * time ranges may be partial or missing.
  */
 function queryServer(meetingRequest) {
   const json = JSON.stringify(meetingRequest);
   return fetch('/query', {method: 'POST', body: json})
       .then((response) => {
-        return response.json();
-      })
-      .then((timeRanges) => {
-        // Convert the range from a json representation to our TimeRange class.
-        const out = [];
-        timeRanges.forEach((range) => {
-          out.push(new TimeRange(range.start, range.duration));
+        if (response.status === 503) {
+          return {timedOut: true, partial: false, timeRanges: []};
+        }
+
+        const partial = response.headers.get('X-Partial-Result') === 'true';
+        return response.json().then((timeRanges) => {
+          // Convert the range from a json representation to our TimeRange class.
+          const out = [];
+          timeRanges.forEach((range) => {
+            out.push(new TimeRange(range.start, range.duration));
+          });
+          return {timedOut: false, partial: partial, timeRanges: out};
         });
-        return out;
       });
 }
 
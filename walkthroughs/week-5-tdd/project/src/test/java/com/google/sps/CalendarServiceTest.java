@@ -0,0 +1,118 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import java.util.Arrays;
+import java.util.Collections;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** */
+@RunWith(JUnit4.class)
+public final class CalendarServiceTest {
+  private static final String PERSON_A = "Person A";
+
+  private static final Event EVENT_1 =
+      new Event("Event 1", TimeRange.fromStartDuration(480, 30), Arrays.asList(PERSON_A));
+  private static final Event EVENT_2 =
+      new Event("Event 2", TimeRange.fromStartDuration(540, 30), Arrays.asList(PERSON_A));
+  private static final Event EVENT_3 =
+      new Event("Event 3", TimeRange.fromStartDuration(600, 30), Arrays.asList(PERSON_A));
+
+  private static final int CHANGE_LOG_CAPACITY = 3;
+
+  private CalendarService calendar;
+
+  @Before
+  public void setUp() {
+    calendar = new CalendarService(Arrays.asList(EVENT_1, EVENT_2), 1, CHANGE_LOG_CAPACITY);
+  }
+
+  @Test
+  public void writesBumpTheVersion() {
+    VersionedEvent added = calendar.addEvent(EVENT_3);
+
+    Assert.assertEquals(2, calendar.getVersion());
+    Assert.assertEquals(2, added.getVersion());
+    Assert.assertEquals(Arrays.asList(EVENT_1, EVENT_2, EVENT_3), calendar.getEvents());
+  }
+
+  @Test
+  public void upToDateClientGetsEmptyDelta() {
+    CalendarDelta delta = calendar.getChangesSince(1);
+
+    Assert.assertFalse(delta.isFull());
+    Assert.assertEquals(1, delta.getVersion());
+    Assert.assertEquals(Collections.emptyList(), delta.getAdded());
+    Assert.assertEquals(Collections.emptyList(), delta.getChanged());
+    Assert.assertEquals(Collections.emptyList(), delta.getDeleted());
+  }
+
+  @Test
+  public void deltaSeparatesAddedChangedAndDeleted() {
+    VersionedEvent added = calendar.addEvent(EVENT_3);
+    calendar.updateEvent(1, EVENT_3);
+    calendar.removeEvent(2);
+
+    CalendarDelta delta = calendar.getChangesSince(1);
+
+    Assert.assertFalse(delta.isFull());
+    Assert.assertEquals(4, delta.getVersion());
+    Assert.assertEquals(1, delta.getAdded().size());
+    Assert.assertEquals(added.getId(), delta.getAdded().get(0).getId());
+    Assert.assertEquals(1, delta.getChanged().size());
+    Assert.assertEquals(1, delta.getChanged().get(0).getId());
+    Assert.assertEquals(EVENT_3, delta.getChanged().get(0).getEvent());
+    Assert.assertEquals(Arrays.asList(2L), delta.getDeleted());
+  }
+
+  @Test
+  public void eventAddedAndRemovedIsNotReported() {
+    VersionedEvent added = calendar.addEvent(EVENT_3);
+    calendar.removeEvent(added.getId());
+
+    CalendarDelta delta = calendar.getChangesSince(1);
+
+    Assert.assertFalse(delta.isFull());
+    Assert.assertEquals(Collections.emptyList(), delta.getAdded());
+    Assert.assertEquals(Collections.emptyList(), delta.getDeleted());
+  }
+
+  @Test
+  public void clientTooFarBehindGetsFullSnapshot() {
+    // Four writes overflow a change log of three entries, so version 1 can no longer be served.
+    calendar.updateEvent(1, EVENT_3);
+    calendar.updateEvent(1, EVENT_1);
+    calendar.updateEvent(2, EVENT_3);
+    calendar.updateEvent(2, EVENT_2);
+
+    CalendarDelta delta = calendar.getChangesSince(1);
+
+    Assert.assertTrue(delta.isFull());
+    Assert.assertEquals(5, delta.getVersion());
+    Assert.assertEquals(2, delta.getAdded().size());
+
+    Assert.assertFalse(calendar.getChangesSince(2).isFull());
+  }
+
+  @Test
+  public void unknownVersionGetsFullSnapshot() {
+    Assert.assertTrue(calendar.getChangesSince(0).isFull());
+    Assert.assertTrue(calendar.getChangesSince(7).isFull());
+  }
+}
@@ -0,0 +1,115 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collection;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** */
+@RunWith(JUnit4.class)
+public final class CalendarSnapshotTest {
+  private static final String PERSON_A = "Person A";
+  private static final String PERSON_B = "Person B";
+  private static final String PERSON_C = "Person C";
+
+  private static final int TIME_0800AM = TimeRange.getTimeInMinutes(8, 0);
+  private static final int TIME_0830AM = TimeRange.getTimeInMinutes(8, 30);
+  private static final int TIME_0900AM = TimeRange.getTimeInMinutes(9, 0);
+  private static final int TIME_1000AM = TimeRange.getTimeInMinutes(10, 0);
+
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+  private Path path;
+
+  @Before
+  public void setUp() throws IOException {
+    path = folder.getRoot().toPath().resolve("calendar.snapshot");
+  }
+
+  @Test
+  public void versionIsKept() throws IOException {
+    CalendarSnapshot.write(path, Arrays.asList(), 42);
+
+    CalendarSnapshot snapshot = CalendarSnapshot.open(path);
+
+    Assert.assertEquals(42, snapshot.getVersion());
+    Assert.assertEquals(0, snapshot.getAttendeeCount());
+  }
+
+  @Test
+  public void busyRangesAreSortedAndMerged() throws IOException {
+    // Events  : |--A--|
+    //              |--A--|     |--A--|
+    // Busy    : |--------|     |--A--|
+    Collection<Event> events =
+        Arrays.asList(
+            new Event(
+                "Event 1",
+                TimeRange.fromStartEnd(TIME_0900AM, TIME_1000AM, false),
+                Arrays.asList(PERSON_A)),
+            new Event(
+                "Event 2",
+                TimeRange.fromStartEnd(TIME_0800AM, TIME_0830AM, false),
+                Arrays.asList(PERSON_A, PERSON_B)),
+            new Event(
+                "Event 3",
+                TimeRange.fromStartEnd(TIME_0800AM, TIME_0900AM, false),
+                Arrays.asList(PERSON_A)));
+
+    CalendarSnapshot.write(path, events, 1);
+    CalendarSnapshot snapshot = CalendarSnapshot.open(path);
+
+    Assert.assertEquals(2, snapshot.getAttendeeCount());
+    Assert.assertEquals(
+        Arrays.asList(TimeRange.fromStartEnd(TIME_0800AM, TIME_1000AM, false)),
+        snapshot.getBusyRanges(PERSON_A));
+    Assert.assertEquals(
+        Arrays.asList(TimeRange.fromStartEnd(TIME_0800AM, TIME_0830AM, false)),
+        snapshot.getBusyRanges(PERSON_B));
+    Assert.assertEquals(Arrays.asList(), snapshot.getBusyRanges(PERSON_C));
+  }
+
+  @Test
+  public void queryFromSnapshotMatchesQueryFromEvents() throws IOException {
+    Collection<Event> events = Arrays.asList(Events.events);
+    CalendarSnapshot.write(path, events, 1);
+    CalendarSnapshot snapshot = CalendarSnapshot.open(path);
+
+    MeetingRequest request = new MeetingRequest(Arrays.asList("James", "Olivia"), 30);
+    request.addOptionalAttendee("Emma");
+    Collection<String> people = Arrays.asList("James", "Olivia", "Emma");
+
+    FindMeetingQuery query = new FindMeetingQuery();
+    Assert.assertEquals(
+        query.query(events, request), query.query(snapshot.getEvents(people), request));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsOtherFiles() throws IOException {
+    Files.write(path, new byte[64]);
+
+    CalendarSnapshot.open(path);
+  }
+}
@@ -14,9 +14,12 @@
 
 package com.google.sps;
 
+import java.util.AbstractCollection;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
@@ -534,4 +537,105 @@ public final class FindMeetingQueryTest {
 
     Assert.assertEquals(expected, actual);
   }
+
+  @Test
+  public void pastDeadlineGivesNoPartialAnswer() {
+    // The deadline passes before the mandatory attendees are considered, so no slot is known to
+    // suit them.
+    Collection<Event> events =
+        Arrays.asList(
+            new Event(
+                "Event 1",
+                TimeRange.fromStartDuration(TIME_0800AM, DURATION_30_MINUTES),
+                Arrays.asList(PERSON_A)));
+
+    MeetingRequest request = new MeetingRequest(Arrays.asList(PERSON_A), DURATION_30_MINUTES);
+    request.setDeadline(System.nanoTime() - 1);
+
+    try {
+      query.query(events, request);
+      Assert.fail("The query should not finish after its deadline.");
+    } catch (QueryTimeoutException e) {
+      Assert.assertFalse(e.hasPartialAnswer());
+    }
+  }
+
+  @Test
+  public void deadlineDuringOptionalAttendeesGivesPartialAnswer() {
+    // The deadline passes once the mandatory attendees have been considered. The partial answer
+    // holds the slots of the mandatory attendee, before the optional attendee is checked.
+    //
+    // Events  :       |--A--|
+    //                             |--B--| - optional
+    // Day     : |-----------------------------|
+    // Options : |--1--|     |------2----------|
+
+    MeetingRequest request = new MeetingRequest(Arrays.asList(PERSON_A), DURATION_30_MINUTES);
+    request.addOptionalAttendee(PERSON_B);
+
+    List<Event> events =
+        Arrays.asList(
+            new Event(
+                "Event 1",
+                TimeRange.fromStartDuration(TIME_0800AM, DURATION_30_MINUTES),
+                Arrays.asList(PERSON_A)),
+            new Event(
+                "Event 2",
+                TimeRange.fromStartDuration(TIME_1000AM, DURATION_30_MINUTES),
+                Arrays.asList(PERSON_B)));
+
+    // Expire the request when the engine starts looking at the events a second time.
+    Collection<Event> expiringEvents =
+        new AbstractCollection<Event>() {
+          private int traversals = 0;
+
+          @Override
+          public Iterator<Event> iterator() {
+            if (++traversals == 2) {
+              request.setDeadline(System.nanoTime() - 1);
+            }
+            return events.iterator();
+          }
+
+          @Override
+          public int size() {
+            return events.size();
+          }
+        };
+
+    try {
+      query.query(expiringEvents, request);
+      Assert.fail("The query should not finish after its deadline.");
+    } catch (QueryTimeoutException e) {
+      Collection<TimeRange> expected =
+          Arrays.asList(
+              TimeRange.fromStartEnd(TimeRange.START_OF_DAY, TIME_0800AM, false),
+              TimeRange.fromStartEnd(TIME_0830AM, TimeRange.END_OF_DAY, true));
+
+      Assert.assertTrue(e.hasPartialAnswer());
+      Assert.assertEquals(expected, e.getPartialAnswer());
+    }
+  }
+
+  @Test
+  public void engineCountsItsWork() {
+    QueryStats stats = new QueryStats();
+    FindMeetingQuery query = new FindMeetingQuery(stats);
+    MeetingRequest request = new MeetingRequest(Arrays.asList(PERSON_A), DURATION_30_MINUTES);
+    request.addOptionalAttendee(PERSON_B);
+
+    query.query(
+        Arrays.asList(
+            new Event(
+                "Event 1",
+                TimeRange.fromStartDuration(TIME_0800AM, DURATION_60_MINUTES),
+                Arrays.asList(PERSON_B))),
+        request);
+
+    Assert.assertEquals(1, stats.getQueries());
+    Assert.assertEquals(2, stats.getEventsScanned());
+    Assert.assertEquals(1, stats.getOptionalSplits());
+    Assert.assertEquals(2, stats.getSlotsProduced());
+    Assert.assertEquals(1, stats.getHistogram(QueryStats.Phase.MANDATORY_SLOTS).getCount());
+  }
 }
@@ -0,0 +1,75 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import java.util.Arrays;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** */
+@RunWith(JUnit4.class)
+public final class LatencyHistogramTest {
+  private LatencyHistogram histogram;
+
+  @Before
+  public void setUp() {
+    histogram = new LatencyHistogram();
+  }
+
+  @Test
+  public void emptyHistogram() {
+    Assert.assertEquals(0, histogram.getCount());
+    Assert.assertEquals(0, histogram.getMean(), 0);
+    Assert.assertEquals(0, histogram.getValueAtPercentile(99));
+  }
+
+  @Test
+  public void bucketsAreContiguous() {
+    // Every value must fall into a bucket whose upper bound is at least the value, and the bucket
+    // before it must end just before the value's bucket starts.
+    for (long value = 0; value < 100_000; value++) {
+      int index = LatencyHistogram.bucketIndex(value);
+      Assert.assertTrue(LatencyHistogram.bucketUpperBound(index) >= value);
+      if (index > 0) {
+        Assert.assertTrue(LatencyHistogram.bucketUpperBound(index - 1) < value);
+      }
+    }
+    Assert.assertEquals(
+        Long.MAX_VALUE,
+        LatencyHistogram.bucketUpperBound(LatencyHistogram.bucketIndex(Long.MAX_VALUE)));
+  }
+
+  @Test
+  public void percentilesAreWithinPrecision() {
+    for (long value = 1; value <= 1000; value++) {
+      histogram.record(value * 1000);
+    }
+
+    Assert.assertEquals(1000, histogram.getCount());
+    Assert.assertEquals(500_500, histogram.getMean(), 0.001);
+    Assert.assertEquals(1_000_000, histogram.getMax());
+
+    for (double percentile : Arrays.asList(50.0, 90.0, 99.0)) {
+      long expected = (long) (percentile * 10_000);
+      long actual = histogram.getValueAtPercentile(percentile);
+      Assert.assertTrue(actual >= expected);
+      Assert.assertTrue(actual <= expected * 1.125);
+    }
+    Assert.assertEquals(1_000_000, histogram.getValueAtPercentile(100));
+  }
+}